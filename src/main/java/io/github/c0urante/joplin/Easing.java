@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+/**
+ * Curves that control how quickly a transition progresses from one color to
+ * the next.
+ */
+public enum Easing {
+
+  LINEAR {
+    @Override
+    public double apply(double progress) {
+      return progress;
+    }
+  },
+  EASE_IN {
+    @Override
+    public double apply(double progress) {
+      return progress * progress;
+    }
+  },
+  EASE_OUT {
+    @Override
+    public double apply(double progress) {
+      double remaining = 1 - progress;
+      return 1 - remaining * remaining;
+    }
+  },
+  EASE_IN_OUT {
+    @Override
+    public double apply(double progress) {
+      return progress * progress * (3 - 2 * progress);
+    }
+  };
+
+  /**
+   * @param progress how far along the transition is, between 0 and 1
+   * @return the weight to give the target color, between 0 and 1
+   */
+  public abstract double apply(double progress);
+
+}
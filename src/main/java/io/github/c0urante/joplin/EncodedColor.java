@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import io.github.c0urante.joplin.internal.Validation;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable RGB color that is encoded for the bridge once, up front, and
+ * then copied into each frame with a single bulk write.
+ * <p>
+ * Instances are obtained through static factory methods, which share a
+ * bounded, process-wide cache: asking for the same color repeatedly (for
+ * example, from a fixed palette) will usually return the same instance
+ * without validating or encoding it again. The cache holds at most
+ * {@value #CACHE_SIZE} colors; when two colors compete for the same slot, the
+ * most recently requested one wins.
+ */
+public final class EncodedColor implements HueColor {
+
+  public static final int CACHE_SIZE = 4096;
+
+  // Racy reads and writes are fine here: instances are immutable and safely
+  // published via their final fields, and a missed entry only costs an allocation
+  private static final EncodedColor[] CACHE = new EncodedColor[CACHE_SIZE];
+
+  private final long rgb48;
+  private final byte[] encoded;
+
+  private EncodedColor(long rgb48) {
+    this.rgb48 = rgb48;
+    this.encoded = new byte[] {
+        (byte) (rgb48 >>> 40),
+        (byte) (rgb48 >>> 32),
+        (byte) (rgb48 >>> 24),
+        (byte) (rgb48 >>> 16),
+        (byte) (rgb48 >>> 8),
+        (byte) rgb48
+    };
+  }
+
+  /**
+   * Get the encoding of an AWT color. The result is sent to the bridge
+   * identically to {@link Rgb#Rgb(Color) new Rgb(color)}; the alpha channel is
+   * ignored.
+   */
+  public static EncodedColor of(Color color) {
+    return rgb24(color.getRGB());
+  }
+
+  /**
+   * @param red the red component, between 0 and 65535
+   * @param green the green component, between 0 and 65535
+   * @param blue the blue component, between 0 and 65535
+   */
+  public static EncodedColor of(int red, int green, int blue) {
+    // Only colors that passed validation are cached, so a hit needs no more than a range check
+    if (((red | green | blue) >>> 16) == 0) {
+      long rgb48 = ((long) red << 32) | ((long) green << 16) | blue;
+      EncodedColor cached = CACHE[slot(rgb48)];
+      if (cached != null && cached.rgb48 == rgb48) {
+        return cached;
+      }
+    }
+
+    Validation.red(red);
+    Validation.green(green);
+    Validation.blue(blue);
+    return lookup(((long) red << 32) | ((long) green << 16) | blue);
+  }
+
+  /**
+   * Get the encoding of a packed 24-bit color, such as {@code 0xFF8000} for
+   * orange. Each 8-bit component is sent to the bridge the same way as
+   * {@link Rgb#Rgb(Color)} would send it. Any bits above the lowest 24 are ignored.
+   */
+  public static EncodedColor rgb24(int rgb24) {
+    long red = (rgb24 >> 16) & 0xFF;
+    long green = (rgb24 >> 8) & 0xFF;
+    long blue = rgb24 & 0xFF;
+    return lookup((red << 40) | (green << 24) | (blue << 8));
+  }
+
+  /**
+   * Get the encoding of a packed 48-bit color, with 16 bits each for red,
+   * green, and blue, from most to least significant.
+   */
+  public static EncodedColor rgb48(long rgb48) {
+    if ((rgb48 >>> 48) != 0)
+      throw new IllegalArgumentException(
+          "Invalid value " + Long.toHexString(rgb48)
+              + " for 48-bit color; "
+              + "must be between 0 and 0xFFFFFFFFFFFF, inclusive"
+      );
+    return lookup(rgb48);
+  }
+
+  /**
+   * @return this color packed into 48 bits, as accepted by {@link #rgb48(long)}
+   */
+  public long rgb48() {
+    return rgb48;
+  }
+
+  @Override
+  public void serializeTo(ByteBuffer byteBuffer) {
+    byteBuffer.put(encoded);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof EncodedColor && ((EncodedColor) o).rgb48 == rgb48;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(rgb48);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("EncodedColor(#%012X)", rgb48);
+  }
+
+  private static EncodedColor lookup(long rgb48) {
+    int index = slot(rgb48);
+    EncodedColor cached = CACHE[index];
+    if (cached != null && cached.rgb48 == rgb48) {
+      return cached;
+    }
+
+    EncodedColor result = new EncodedColor(rgb48);
+    CACHE[index] = result;
+    return result;
+  }
+
+  private static int slot(long rgb48) {
+    long mixed = rgb48 * 0x9E3779B97F4A7C15L;
+    return (int) (mixed >>> 52) & (CACHE_SIZE - 1);
+  }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single channel of an entertainment area, as reported by the bridge.
+ */
+public class EntertainmentChannel {
+
+  private final int channelId;
+  private final Position position;
+  private final List<String> lightIds;
+  private final Gamut gamut;
+
+  public EntertainmentChannel(int channelId, Position position, List<String> lightIds, Gamut gamut) {
+    this.channelId = channelId;
+    this.position = position;
+    this.lightIds = Collections.unmodifiableList(lightIds);
+    this.gamut = gamut;
+  }
+
+  /**
+   * @return the channel to use for this part of the area with, e.g.,
+   * {@link Light#Light(int, HueColor)}
+   */
+  public int channelId() {
+    return channelId;
+  }
+
+  public Position position() {
+    return position;
+  }
+
+  /**
+   * @return the IDs of the lights that render this channel
+   */
+  public List<String> lightIds() {
+    return lightIds;
+  }
+
+  /**
+   * @return the color gamut shared by the lights that render this channel, or
+   * {@link Gamut#OTHER} if it is unknown or the lights disagree
+   */
+  public Gamut gamut() {
+    return gamut;
+  }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The layout of an entertainment area, as reported by the bridge's CLIP v2 API.
+ *
+ * @see HueEntertainmentClient#entertainmentConfiguration()
+ */
+public class EntertainmentConfiguration {
+
+  private final String id;
+  private final String name;
+  private final List<EntertainmentChannel> channels;
+
+  public EntertainmentConfiguration(String id, String name, List<EntertainmentChannel> channels) {
+    this.id = id;
+    this.name = name;
+    this.channels = Collections.unmodifiableList(channels);
+  }
+
+  public String id() {
+    return id;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  /**
+   * @return the channels in the area, ordered by channel ID
+   */
+  public List<EntertainmentChannel> channels() {
+    return channels;
+  }
+
+}
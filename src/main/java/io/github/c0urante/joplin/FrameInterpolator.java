@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import io.github.c0urante.joplin.internal.ColorMath;
+import io.github.c0urante.joplin.internal.FrameLoop;
+import io.github.c0urante.joplin.internal.Serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smooths out sparse color updates by interpolating between them and sending
+ * the results to a {@link HueEntertainmentClient} at a fixed frame rate.
+ * <p>
+ * For each channel, the interpolator keeps track of the most recent keyframe
+ * and the color that was being displayed when it arrived. The transition
+ * between the two takes as long as the gap between the last two keyframes for
+ * that channel, so a producer running at 10 Hz will see each of its updates
+ * blended in over 100ms.
+ * <p>
+ * Closing the interpolator stops it from sending any more frames, but does not
+ * close the underlying client.
+ */
+public class FrameInterpolator implements AutoCloseable {
+
+  private static final int CHANNELS = 256;
+  private static final long MAX_TRANSITION_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final HueEntertainmentClient client;
+  private final InterpolationMode mode;
+  private final Easing easing;
+  private final FrameLoop frameLoop;
+
+  // All guarded by this
+  private final boolean[] active = new boolean[CHANNELS];
+  private final int[] from = new int[CHANNELS * 3];
+  private final int[] to = new int[CHANNELS * 3];
+  private final long[] keyframeNanos = new long[CHANNELS];
+  private final long[] transitionNanos = new long[CHANNELS];
+  private final int[] current = new int[3];
+  private final double[] xyScratch = new double[6];
+  private final ByteBuffer scratch = ByteBuffer.allocate(6);
+  // Reused for every frame, which is only rendered by the frame loop's thread
+  private final ByteBuffer encoded = ByteBuffer.allocate(CHANNELS * Serialization.LIGHT_SIZE);
+
+  private FrameInterpolator(
+      HueEntertainmentClient client,
+      double frameRate,
+      InterpolationMode mode,
+      Easing easing
+  ) {
+    Objects.requireNonNull(client, "Client must be set");
+    Objects.requireNonNull(mode, "Interpolation mode must be set");
+    Objects.requireNonNull(easing, "Easing must be set");
+
+    this.client = client;
+    this.mode = mode;
+    this.easing = easing;
+    this.frameLoop = new FrameLoop("joplin-interpolator", frameRate, this::sendFrame);
+  }
+
+  public static Builder builder(HueEntertainmentClient client) {
+    return new Builder(client);
+  }
+
+  /**
+   * Builder for {@link FrameInterpolator}.
+   */
+  public static class Builder {
+
+    public static final double DEFAULT_FRAME_RATE = 50;
+    public static final InterpolationMode DEFAULT_MODE = InterpolationMode.RGB;
+    public static final Easing DEFAULT_EASING = Easing.LINEAR;
+
+    private final HueEntertainmentClient client;
+    private double frameRate = DEFAULT_FRAME_RATE;
+    private InterpolationMode mode = DEFAULT_MODE;
+    private Easing easing = DEFAULT_EASING;
+
+    private Builder(HueEntertainmentClient client) {
+      this.client = client;
+    }
+
+    public Builder frameRate(double frameRate) {
+      this.frameRate = frameRate;
+      return this;
+    }
+
+    public Builder mode(InterpolationMode mode) {
+      this.mode = mode;
+      return this;
+    }
+
+    public Builder easing(Easing easing) {
+      this.easing = easing;
+      return this;
+    }
+
+    public FrameInterpolator build() {
+      return new FrameInterpolator(client, frameRate, mode, easing);
+    }
+
+  }
+
+  /**
+   * Begin sending interpolated frames to the client. The client's stream must
+   * already be initialized.
+   */
+  public void start() {
+    frameLoop.start();
+  }
+
+  /**
+   * Record a new keyframe. The first color will be used for channel 0, the
+   * next for channel 1, and so on.
+   * @param colors the colors to transition to
+   * @throws IOException if a previous interpolated frame could not be sent, in
+   * which case the interpolator will have stopped
+   */
+  public void keyframe(HueColor... colors) throws IOException {
+    Light[] lights = new Light[colors.length];
+    for (int i = 0; i < colors.length; i++) {
+      lights[i] = new Light(i, colors[i]);
+    }
+    keyframe(lights);
+  }
+
+  /**
+   * Record a new keyframe for specific lights. Channels that are not included
+   * keep transitioning towards their most recent keyframe.
+   * @param lights the lights to transition to
+   * @throws IOException if a previous interpolated frame could not be sent, in
+   * which case the interpolator will have stopped
+   */
+  public void keyframe(Light... lights) throws IOException {
+    Exception failure = frameLoop.failure();
+    if (failure != null) {
+      throw new IOException("Interpolator stopped after failing to send a frame", failure);
+    }
+
+    keyframe(System.nanoTime(), lights);
+  }
+
+  /**
+   * Stop sending interpolated frames.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    frameLoop.close();
+  }
+
+  synchronized void keyframe(long nowNanos, Light... lights) {
+    for (Light light : lights) {
+      int channel = light.channel();
+      int offset = channel * 3;
+
+      if (!active[channel]) {
+        ColorMath.decodeRgb(light.color(), scratch, to, offset);
+        System.arraycopy(to, offset, from, offset, 3);
+        transitionNanos[channel] = 0;
+        active[channel] = true;
+      } else {
+        // Start from wherever we are now, so that early keyframes don't cause jumps
+        sample(channel, nowNanos, from, offset);
+        ColorMath.decodeRgb(light.color(), scratch, to, offset);
+        transitionNanos[channel] = Math.min(
+            Math.max(nowNanos - keyframeNanos[channel], 0),
+            MAX_TRANSITION_NANOS
+        );
+      }
+      keyframeNanos[channel] = nowNanos;
+    }
+  }
+
+  /**
+   * Render the frame for the given time, in the format accepted by
+   * {@link HueEntertainmentClient#sendEncodedLights(ByteBuffer)}.
+   * @return the encoded lights; the buffer is reused by the next call
+   */
+  synchronized ByteBuffer encodeFrame(long nowNanos) {
+    encoded.clear();
+    for (int channel = 0; channel < CHANNELS; channel++) {
+      if (!active[channel]) {
+        continue;
+      }
+      sample(channel, nowNanos, current, 0);
+      encoded.put((byte) channel);
+      encoded.putShort((short) current[0]);
+      encoded.putShort((short) current[1]);
+      encoded.putShort((short) current[2]);
+    }
+    encoded.flip();
+    return encoded;
+  }
+
+  // Decodes the rendered frame, for tests
+  synchronized Light[] frame(long nowNanos) {
+    ByteBuffer frame = encodeFrame(nowNanos);
+    Light[] result = new Light[frame.remaining() / Serialization.LIGHT_SIZE];
+    for (int i = 0; i < result.length; i++) {
+      int channel = frame.get() & 0xFF;
+      result[i] = new Light(
+          channel,
+          new Rgb(frame.getShort() & 0xFFFF, frame.getShort() & 0xFFFF, frame.getShort() & 0xFFFF)
+      );
+    }
+    return result;
+  }
+
+  private void sendFrame(long nowNanos) throws IOException {
+    client.sendEncodedLights(encodeFrame(nowNanos));
+  }
+
+  private void sample(int channel, long nowNanos, int[] out, int outOffset) {
+    int offset = channel * 3;
+    long transition = transitionNanos[channel];
+    long elapsed = nowNanos - keyframeNanos[channel];
+    if (transition == 0 || elapsed >= transition) {
+      System.arraycopy(to, offset, out, outOffset, 3);
+      return;
+    }
+
+    double weight = easing.apply(Math.max(elapsed, 0) / (double) transition);
+    switch (mode) {
+      case RGB:
+        ColorMath.mixRgb(from, to, offset, weight, out, outOffset);
+        break;
+      case XY:
+        ColorMath.mixXy(from, to, offset, weight, xyScratch, out, outOffset);
+        break;
+      default:
+        throw new IllegalStateException("Unexpected interpolation mode " + mode);
+    }
+  }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import io.github.c0urante.joplin.internal.FrameLoop;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Subscriber} that sends each frame it receives to a
+ * {@link HueEntertainmentClient}, paced by a fixed frame rate.
+ * <p>
+ * At most one frame is sent per tick. What happens when the publisher
+ * produces frames faster than that is controlled by the subscriber's
+ * {@link OverflowPolicy}; with {@link OverflowPolicy#BUFFER}, demand is
+ * requested one frame at a time as frames are sent, so that the publisher is
+ * held to the frame rate.
+ * <p>
+ * The subscriber starts sending once it has been subscribed, and stops when
+ * the publisher completes (after sending any buffered frames), signals an
+ * error, or the client fails to send a frame (in which case the subscription
+ * is cancelled). Closing the subscriber cancels its subscription, but does
+ * not close the underlying client.
+ *
+ * @see HueEntertainmentClient#subscriber(OverflowPolicy, int)
+ */
+public class FrameSubscriber implements Flow.Subscriber<List<Light>>, AutoCloseable {
+
+  private final HueEntertainmentClient client;
+  private final OverflowPolicy overflowPolicy;
+  private final int bufferSize;
+  private final FrameLoop frameLoop;
+  private final AtomicLong framesReceived = new AtomicLong();
+  private final AtomicLong framesDropped = new AtomicLong();
+
+  // Guarded by this
+  private final ArrayDeque<List<Light>> queue = new ArrayDeque<>();
+  private Flow.Subscription subscription = null;
+  private boolean completed = false;
+
+  private volatile Throwable error = null;
+
+  private FrameSubscriber(
+      HueEntertainmentClient client,
+      double frameRate,
+      OverflowPolicy overflowPolicy,
+      int bufferSize
+  ) {
+    Objects.requireNonNull(client, "Client must be set");
+    Objects.requireNonNull(overflowPolicy, "Overflow policy must be set");
+    if (bufferSize <= 0)
+      throw new IllegalArgumentException(
+          "Invalid value " + bufferSize
+              + " for buffer size; "
+              + "must be positive"
+      );
+
+    this.client = client;
+    this.overflowPolicy = overflowPolicy;
+    this.bufferSize = overflowPolicy == OverflowPolicy.CONFLATE ? 1 : bufferSize;
+    this.frameLoop = new FrameLoop("joplin-subscriber", frameRate, this::sendFrame);
+  }
+
+  public static Builder builder(HueEntertainmentClient client) {
+    return new Builder(client);
+  }
+
+  /**
+   * Builder for {@link FrameSubscriber}.
+   */
+  public static class Builder {
+
+    public static final double DEFAULT_FRAME_RATE = 50;
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.CONFLATE;
+    public static final int DEFAULT_BUFFER_SIZE = 8;
+
+    private final HueEntertainmentClient client;
+    private double frameRate = DEFAULT_FRAME_RATE;
+    private OverflowPolicy overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private Builder(HueEntertainmentClient client) {
+      this.client = client;
+    }
+
+    public Builder frameRate(double frameRate) {
+      this.frameRate = frameRate;
+      return this;
+    }
+
+    public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = overflowPolicy;
+      return this;
+    }
+
+    /**
+     * The most frames to hold while waiting to send them. Ignored with
+     * {@link OverflowPolicy#CONFLATE}, which only ever holds one.
+     */
+    public Builder bufferSize(int bufferSize) {
+      this.bufferSize = bufferSize;
+      return this;
+    }
+
+    public FrameSubscriber build() {
+      return new FrameSubscriber(client, frameRate, overflowPolicy, bufferSize);
+    }
+
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    Objects.requireNonNull(subscription, "Subscription may not be null");
+    synchronized (this) {
+      if (this.subscription != null) {
+        subscription.cancel();
+        return;
+      }
+      this.subscription = subscription;
+    }
+
+    frameLoop.start();
+    subscription.request(overflowPolicy == OverflowPolicy.BUFFER ? bufferSize : Long.MAX_VALUE);
+  }
+
+  @Override
+  public void onNext(List<Light> frame) {
+    Objects.requireNonNull(frame, "Frame may not be null");
+    framesReceived.incrementAndGet();
+    synchronized (this) {
+      if (queue.size() >= bufferSize) {
+        framesDropped.incrementAndGet();
+        if (overflowPolicy == OverflowPolicy.BUFFER) {
+          // The publisher sent more than we asked for; keep what we have
+          return;
+        }
+        queue.pollFirst();
+      }
+      queue.addLast(frame);
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    error = throwable;
+    synchronized (this) {
+      queue.clear();
+      completed = true;
+    }
+  }
+
+  @Override
+  public synchronized void onComplete() {
+    completed = true;
+  }
+
+  /**
+   * @return the number of frames waiting to be sent
+   */
+  public synchronized int queueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * @return the number of frames received from the publisher
+   */
+  public long framesReceived() {
+    return framesReceived.get();
+  }
+
+  /**
+   * @return the number of frames that were dropped without being sent
+   */
+  public long framesDropped() {
+    return framesDropped.get();
+  }
+
+  /**
+   * @return the error signalled by the publisher, or the failure to send a
+   * frame that stopped the subscriber, if either has occurred
+   */
+  public Throwable error() {
+    Throwable result = error;
+    return result != null ? result : frameLoop.failure();
+  }
+
+  /**
+   * Cancel the subscription and stop sending frames.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    Flow.Subscription subscription;
+    synchronized (this) {
+      subscription = this.subscription;
+      completed = true;
+      queue.clear();
+    }
+    if (subscription != null) {
+      subscription.cancel();
+    }
+    frameLoop.close();
+  }
+
+  private void sendFrame(long nowNanos) throws IOException {
+    List<Light> frame;
+    Flow.Subscription subscription;
+    synchronized (this) {
+      frame = queue.pollFirst();
+      subscription = this.subscription;
+      if (frame == null && completed) {
+        // Nothing left to send; stop ticking
+        stopFrameLoop();
+        return;
+      }
+    }
+    if (frame == null) {
+      return;
+    }
+
+    try {
+      client.sendLights(frame);
+    } catch (IOException | RuntimeException e) {
+      subscription.cancel();
+      throw e;
+    }
+
+    if (overflowPolicy == OverflowPolicy.BUFFER) {
+      subscription.request(1);
+    }
+  }
+
+  private void stopFrameLoop() {
+    try {
+      // Called from the loop thread, so this doesn't block
+      frameLoop.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+/**
+ * The range of colors that a light can reproduce, as reported by the bridge.
+ * The bridge maps colors into a light's gamut itself; this is informational.
+ *
+ * @see <a href="https://developers.meethue.com/develop/application-design-guidance/color-conversion-formulas-rgb-to-xy-and-back/">
+ *   Hue color gamuts</a>
+ */
+public enum Gamut {
+
+  A,
+  B,
+  C,
+  /**
+   * The gamut is unknown, or the light is not a Hue color light.
+   */
+  OTHER;
+
+  /**
+   * @param gamutType the {@code gamut_type} reported by the bridge's CLIP v2 API
+   * @return the matching gamut, or {@link #OTHER} if it's not recognized
+   */
+  public static Gamut fromGamutType(String gamutType) {
+    if (gamutType == null) {
+      return OTHER;
+    }
+    switch (gamutType) {
+      case "A":
+        return A;
+      case "B":
+        return B;
+      case "C":
+        return C;
+      default:
+        return OTHER;
+    }
+  }
+
+}
@@ -17,10 +17,17 @@ package io.github.c0urante.joplin;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.c0urante.joplin.internal.Deserialization;
 import io.github.c0urante.joplin.internal.DtlsClient;
+import io.github.c0urante.joplin.internal.EventRing;
 import io.github.c0urante.joplin.internal.InsecureSslContextFactory;
+import io.github.c0urante.joplin.internal.ResourceCache;
 import io.github.c0urante.joplin.internal.Serialization;
 import io.github.c0urante.joplin.internal.Validation;
+import io.github.c0urante.joplin.internal.events.FrameEncodeEvent;
+import io.github.c0urante.joplin.internal.events.FrameSendEvent;
+import io.github.c0urante.joplin.internal.events.SendFailureEvent;
+import io.github.c0urante.joplin.internal.events.StreamControlEvent;
 import org.bouncycastle.tls.BasicTlsPSKIdentity;
 import org.bouncycastle.tls.TlsPSKIdentity;
 
@@ -30,12 +37,22 @@ import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
 /**
@@ -48,6 +65,15 @@ import java.util.stream.IntStream;
 public class HueEntertainmentClient implements AutoCloseable {
 
   private static final Duration REST_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+  private static final int SEND_FAILURE_CAPACITY = 1024;
+  private static final long INITIAL_BACK_OFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MAX_BACK_OFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  // Shared across clients so that each bridge only has to be asked once; keyed by the bridge's
+  // base URI and the application key, since what a bridge returns depends on both
+  private static final ResourceCache<EntertainmentConfiguration> CONFIGURATIONS = new ResourceCache<>();
+  // The raw data behind the configurations, kept so that it can be revalidated with its entity tag
+  private static final ResourceCache<JsonNode> RESOURCES = new ResourceCache<>();
 
   private final TlsPSKIdentity pskIdentity;
   private final String host;
@@ -56,11 +82,53 @@ public class HueEntertainmentClient implements AutoCloseable {
   private final byte colorSpace;
   private final byte[] entertainmentArea;
   private final int tries;
+  private final long configurationTtlNanos;
+  private final int handshakeTimeoutMillis;
+  private final SendFailurePolicy sendFailurePolicy;
+  private final SendFailureListener sendFailureListener;
   private final URI baseUri;
   private final HttpClient httpClient;
+  private final StreamMetrics metrics = new StreamMetrics();
+  private final RateController rateController;
+  private final boolean lazyStart;
+  private final EventRing<SendFailure> sendFailures = new EventRing<>(SEND_FAILURE_CAPACITY, SendFailure::new);
+  // Reads consecutiveFailures, so only published while holding sendLock
+  private final BiConsumer<SendFailure, IOException> recordSendFailure =
+      (failure, cause) -> failure.set(System.currentTimeMillis(), cause, this.consecutiveFailures);
 
   private Thread httpThread;
+
+  // Stream state; guarded by sendLock
+  private final Object sendLock = new Object();
   private DtlsClient dtlsClient = null;
+  private long consecutiveFailures = 0;
+  private long backOffUntilNanos = 0;
+  private boolean reconnectRequired = false;
+  private long streamStartNanos = 0;
+  private boolean awaitingFirstFrame = false;
+  // Set while a sender starts the stream, so that other senders drop frames instead of starting it too
+  private boolean starting = false;
+
+  // Reused between frames; guarded by sendLock
+  private byte[][] datagrams = new byte[0][];
+  private int[] datagramSizes = new int[0];
+  private int lightsPerDatagram = Serialization.MAX_LIGHTS_PER_MESSAGE;
+  private byte sequence = 0;
+  // The latest frame held back by rate control, still encoded in the datagram buffers
+  private boolean deferredFrame = false;
+  private int deferredDatagrams = 0;
+  private int deferredLights = 0;
+  private Thread deferredFrameSender = null;
+  // A failure to send the deferred frame, to be thrown from the next send
+  private IOException deferredFailure = null;
+
+  // Bumped whenever pending repeats should be abandoned in favor of a newer frame
+  private final AtomicLong preemptions = new AtomicLong();
+  // The number of preemptions as of the last frame sent; guarded by sendLock
+  private long sentPreemptions = 0;
+
+  private Thread sendFailureDispatcher = null;
+  private volatile boolean closed = false;
 
   private HueEntertainmentClient(
       String host,
@@ -69,12 +137,21 @@ public class HueEntertainmentClient implements AutoCloseable {
       String clientKey,
       int colorSpace,
       String entertainmentArea,
-      int tries
+      int tries,
+      Duration configurationTtl,
+      Duration handshakeTimeout,
+      SendFailurePolicy sendFailurePolicy,
+      SendFailureListener sendFailureListener,
+      double minFrameRate,
+      double maxFrameRate,
+      boolean lazyStart,
+      URI restUri
   ) {
     Objects.requireNonNull(host, "Host name / IP address must be set");
     Objects.requireNonNull(username, "Username must be set");
     Objects.requireNonNull(clientKey, "Client key must be set");
     Objects.requireNonNull(entertainmentArea, "Entertainment area ID must be set");
+    Objects.requireNonNull(sendFailurePolicy, "Send failure policy must be set");
 
     this.pskIdentity = new BasicTlsPSKIdentity(username, parseClientKey(clientKey));
     this.host = host;
@@ -83,6 +160,17 @@ public class HueEntertainmentClient implements AutoCloseable {
     this.colorSpace = Validation.colorSpace(colorSpace);
     this.entertainmentArea = Validation.entertainmentArea(entertainmentArea);
     this.tries = Validation.tries(tries);
+    this.configurationTtlNanos = Validation.configurationTtl(configurationTtl).toNanos();
+    this.handshakeTimeoutMillis = Validation.handshakeTimeoutMillis(handshakeTimeout);
+    this.sendFailurePolicy = sendFailurePolicy;
+    this.sendFailureListener = sendFailureListener;
+    this.lazyStart = lazyStart;
+    if (maxFrameRate > 0) {
+      this.rateController = new RateController(minFrameRate, maxFrameRate, this.tries, metrics);
+    } else {
+      this.rateController = null;
+      metrics.recordTries(this.tries);
+    }
 
     this.httpClient = HttpClient.newBuilder()
         .sslContext(InsecureSslContextFactory.context())
@@ -90,15 +178,7 @@ public class HueEntertainmentClient implements AutoCloseable {
         .connectTimeout(REST_CONNECT_TIMEOUT)
         .build();
 
-    String baseUriString = "https://" + host;
-    try {
-      this.baseUri = new URI(baseUriString);
-    } catch (URISyntaxException e) {
-      throw new IllegalArgumentException(
-          "Failed to parse URI from string '" + baseUriString + "'",
-          e
-      );
-    }
+    this.baseUri = restUri != null ? restUri : restUri(host);
   }
 
   public static Builder builder() {
@@ -113,6 +193,9 @@ public class HueEntertainmentClient implements AutoCloseable {
     public static final int DEFAULT_PORT = 2100;
     public static final int DEFAULT_COLOR_SPACE = HueColor.COLOR_SPACE_RGB;
     public static final int DEFAULT_TRIES = 3;
+    public static final Duration DEFAULT_CONFIGURATION_TTL = Duration.ofMinutes(5);
+    public static final Duration DEFAULT_HANDSHAKE_TIMEOUT = Duration.ofSeconds(5);
+    public static final SendFailurePolicy DEFAULT_SEND_FAILURE_POLICY = SendFailurePolicy.THROW;
 
     private String host = null;
     private int port = DEFAULT_PORT;
@@ -121,6 +204,14 @@ public class HueEntertainmentClient implements AutoCloseable {
     private int colorSpace = DEFAULT_COLOR_SPACE;
     private String entertainmentArea = null;
     private int tries = DEFAULT_TRIES;
+    private Duration configurationTtl = DEFAULT_CONFIGURATION_TTL;
+    private Duration handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT;
+    private SendFailurePolicy sendFailurePolicy = DEFAULT_SEND_FAILURE_POLICY;
+    private SendFailureListener sendFailureListener = null;
+    private double minFrameRate = 0;
+    private double maxFrameRate = 0;
+    private boolean lazyStart = false;
+    private URI restUri = null;
 
     private Builder() {
     }
@@ -161,6 +252,110 @@ public class HueEntertainmentClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * How long a fetched {@link EntertainmentConfiguration} can be reused
+     * before the bridge is asked whether it has changed.
+     */
+    public Builder configurationTtl(Duration configurationTtl) {
+      this.configurationTtl = configurationTtl;
+      return this;
+    }
+
+    /**
+     * How long to wait for the bridge to complete a DTLS handshake before
+     * giving up on it.
+     */
+    public Builder handshakeTimeout(Duration handshakeTimeout) {
+      this.handshakeTimeout = handshakeTimeout;
+      return this;
+    }
+
+    /**
+     * What to do when a frame can't be sent to the bridge. With any policy
+     * other than {@link SendFailurePolicy#THROW}, methods like
+     * {@link #sendLights(Light...)} will not throw if the bridge can't be
+     * reached after the stream has been initialized.
+     */
+    public Builder sendFailurePolicy(SendFailurePolicy sendFailurePolicy) {
+      this.sendFailurePolicy = sendFailurePolicy;
+      return this;
+    }
+
+    /**
+     * A listener to notify of send failures that weren't thrown. It is invoked
+     * on a dedicated thread, so it may be slow without holding up frames.
+     * If unset, failures can still be retrieved via
+     * {@link HueEntertainmentClient#drainSendFailures(Consumer)}.
+     */
+    public Builder sendFailureListener(SendFailureListener sendFailureListener) {
+      this.sendFailureListener = sendFailureListener;
+      return this;
+    }
+
+    /**
+     * Enable adaptive rate control. Frames will be sent no faster than
+     * {@code maxFrameRate}; if the network appears congested, the limit is
+     * lowered (but never below {@code minFrameRate}) and fewer copies of each
+     * frame are sent, until the link recovers. A frame that arrives too soon
+     * after the previous one is held back and sent once the frame rate
+     * allows, unless a newer frame replaces it first, in which case it is
+     * skipped. This way, the last frame of a burst is never lost.
+     * <p>
+     * Disabled by default, in which case every frame is sent as soon as it is
+     * provided, with the configured number of {@link #tries(int) tries}.
+     */
+    public Builder adaptiveFrameRate(double minFrameRate, double maxFrameRate) {
+      this.minFrameRate = minFrameRate;
+      this.maxFrameRate = maxFrameRate;
+      return this;
+    }
+
+    /**
+     * Whether to start the stream automatically when the first frame is sent,
+     * instead of requiring {@link HueEntertainmentClient#initializeStream()}
+     * to be called beforehand. If starting the stream fails, it is handled
+     * according to the client's {@link #sendFailurePolicy(SendFailurePolicy) send failure policy},
+     * and attempted again with the next frame.
+     */
+    public Builder lazyStart(boolean lazyStart) {
+      this.lazyStart = lazyStart;
+      return this;
+    }
+
+    /**
+     * Where to reach the bridge's REST API, instead of over HTTPS on the
+     * {@link #host(String) host}. Used to test against a local stand-in for
+     * the bridge.
+     */
+    Builder restUri(URI restUri) {
+      this.restUri = restUri;
+      return this;
+    }
+
+    /**
+     * @return a new builder with the same settings as this one, which can be
+     * changed without affecting this one
+     */
+    Builder copy() {
+      Builder result = new Builder();
+      result.host = host;
+      result.port = port;
+      result.username = username;
+      result.clientKey = clientKey;
+      result.colorSpace = colorSpace;
+      result.entertainmentArea = entertainmentArea;
+      result.tries = tries;
+      result.configurationTtl = configurationTtl;
+      result.handshakeTimeout = handshakeTimeout;
+      result.sendFailurePolicy = sendFailurePolicy;
+      result.sendFailureListener = sendFailureListener;
+      result.minFrameRate = minFrameRate;
+      result.maxFrameRate = maxFrameRate;
+      result.lazyStart = lazyStart;
+      result.restUri = restUri;
+      return result;
+    }
+
     public HueEntertainmentClient build() {
       return new HueEntertainmentClient(
           host,
@@ -169,7 +364,15 @@ public class HueEntertainmentClient implements AutoCloseable {
           clientKey,
           colorSpace,
           entertainmentArea,
-          tries
+          tries,
+          configurationTtl,
+          handshakeTimeout,
+          sendFailurePolicy,
+          sendFailureListener,
+          minFrameRate,
+          maxFrameRate,
+          lazyStart,
+          restUri
       );
     }
 
@@ -178,9 +381,15 @@ public class HueEntertainmentClient implements AutoCloseable {
   /**
    * Prepare to start streaming to the bridge. This needs to be invoked before
    * any colors can be sent via, e.g., {@link #sendColors(HueColor...)} or
-   * {@link #sendLights(Light...)}.
-
-   * @throws IOException if an error occurs while contacting the bridge's REST API
+   * {@link #sendLights(Light...)}, unless the client was built with
+   * {@link Builder#lazyStart(boolean) lazy start} enabled.
+   * <p>
+   * The bridge's address is resolved and the client's socket and crypto state
+   * are set up while the REST request is in flight, so that the DTLS handshake
+   * can begin as soon as the bridge acknowledges it.
+   *
+   * @throws IOException if an error occurs while contacting the bridge's REST
+   * or DTLS APIs
    * @throws InterruptedException if the client is closed or the calling thread is
    * otherwise interrupted while contacting the bridge's REST API
    *
@@ -188,26 +397,251 @@ public class HueEntertainmentClient implements AutoCloseable {
    *   Hue Entertainment API guide, step 5</a>
    */
   public void initializeStream() throws IOException, InterruptedException {
+    initializeStream(null);
+  }
+
+  /**
+   * @param prepared a connection to the bridge that was prepared ahead of
+   *                 time, which will be used for the handshake instead of
+   *                 preparing a new one; may be null
+   */
+  void initializeStream(DtlsClient.Prepared prepared) throws IOException, InterruptedException {
+    long startNanos = System.nanoTime();
+
     synchronized (this) {
       httpThread = Thread.currentThread();
     }
 
-    sendEntertainmentConfigurationRequest(true);
+    StreamControlEvent startEvent = new StreamControlEvent();
+    startEvent.begin();
+    CompletableFuture<HttpResponse<String>> startResponse = httpClient.sendAsync(
+        entertainmentConfigurationRequest(true),
+        HttpResponse.BodyHandlers.ofString()
+    );
 
-    synchronized (this) {
-      httpThread = null;
+    HttpResponse<String> response = null;
+    try {
+      if (prepared == null) {
+        try {
+          prepared = DtlsClient.prepare(host, port, pskIdentity, handshakeTimeoutMillis);
+        } catch (IOException | RuntimeException e) {
+          response = abandonStart(startResponse);
+          throw e;
+        }
+      }
+
+      try {
+        response = await(startResponse);
+        parseResponse(response);
+      } catch (IOException | InterruptedException | RuntimeException e) {
+        prepared.close();
+        throw e;
+      }
+    } finally {
+      commitStreamControlEvent(startEvent, true, response);
+      synchronized (this) {
+        httpThread = null;
+      }
+    }
+
+    // The handshake happens without holding sendLock, so frames can still be sent (or dropped) meanwhile
+    DtlsClient connected = null;
+    int connectedLightsPerDatagram;
+    try {
+      connected = prepared.connect();
+      connectedLightsPerDatagram = lightsPerDatagram(connected);
+    } catch (IOException | RuntimeException e) {
+      if (connected != null) {
+        connected.close();
+      }
+      // The bridge is streaming to us now, but we have no way to send to it
+      stopStreamQuietly();
+      throw e;
     }
 
-    if (dtlsClient != null) {
-      dtlsClient.close();
-      dtlsClient = null;
+    synchronized (sendLock) {
+      if (closed) {
+        connected.close();
+        stopStreamQuietly();
+        throw new InterruptedException("Client was closed while starting stream");
+      }
+      if (dtlsClient != null) {
+        dtlsClient.close();
+      }
+      dtlsClient = connected;
+      lightsPerDatagram = connectedLightsPerDatagram;
+      reconnectRequired = false;
+      backOffUntilNanos = 0;
+      consecutiveFailures = 0;
+      deferredFrame = false;
+      deferredFailure = null;
+      streamStartNanos = startNanos;
+      awaitingFirstFrame = true;
+      metrics.recordTimeToFirstFrame(0);
     }
+  }
+
+  /**
+   * Stop streaming to the entertainment area, freeing the bridge to stream to
+   * a different one. Streaming can be resumed with {@link #initializeStream()}.
+   *
+   * @throws IOException if an error occurs while contacting the bridge's REST API
+   * @throws InterruptedException if the calling thread is interrupted while
+   * contacting the bridge's REST API
+   */
+  public void stopStream() throws IOException, InterruptedException {
+    finishStopStream(beginStopStream());
+  }
 
-    this.dtlsClient = new DtlsClient(
-        host,
-        port,
-        pskIdentity
+  /**
+   * Stop sending frames and ask the bridge to stop streaming, without waiting
+   * for it to respond, so that the caller can get on with something else
+   * meanwhile. The returned request must be passed to
+   * {@link #finishStopStream(CompletableFuture)}.
+   */
+  CompletableFuture<HttpResponse<String>> beginStopStream() throws IOException {
+    synchronized (sendLock) {
+      if (dtlsClient != null) {
+        dtlsClient.close();
+        dtlsClient = null;
+      }
+      reconnectRequired = false;
+      awaitingFirstFrame = false;
+      deferredFrame = false;
+      deferredFailure = null;
+    }
+
+    StreamControlEvent event = new StreamControlEvent();
+    event.begin();
+    return httpClient.sendAsync(
+        entertainmentConfigurationRequest(false),
+        HttpResponse.BodyHandlers.ofString()
+    ).whenComplete((response, e) -> commitStreamControlEvent(event, false, response));
+  }
+
+  /**
+   * Wait for the bridge to respond to a request from {@link #beginStopStream()}.
+   */
+  void finishStopStream(CompletableFuture<HttpResponse<String>> stop) throws IOException, InterruptedException {
+    parseResponse(await(stop));
+  }
+
+  /**
+   * Give up on a start request whose stream we can no longer use. Cancelling
+   * the request doesn't help if it has already been sent, so wait for it, and
+   * stop the stream again if the bridge started it.
+   * @return the response to the start request, or null if there was none
+   */
+  private HttpResponse<String> abandonStart(CompletableFuture<HttpResponse<String>> startResponse) {
+    HttpResponse<String> result;
+    try {
+      result = startResponse.get();
+    } catch (InterruptedException e) {
+      // Only happens if we're being closed, which stops the stream anyways
+      startResponse.cancel(true);
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException | CancellationException e) {
+      return null;
+    }
+
+    if (result.statusCode() / 100 == 2) {
+      stopStreamQuietly();
+    }
+    return result;
+  }
+
+  private void stopStreamQuietly() {
+    try {
+      sendEntertainmentConfigurationRequest(false);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException | RuntimeException e) {
+      // Best effort; the bridge also ends the stream after 10 seconds without any frames
+    }
+  }
+
+  /**
+   * Open a connection to the bridge's REST API, if one isn't already open,
+   * and confirm that the entertainment area exists.
+   */
+  void warmUp() throws IOException, InterruptedException {
+    parseResponse(getResource("entertainment_configuration/" + entertainmentAreaString(), null));
+  }
+
+  /**
+   * Prepare a connection to the bridge for a later call to
+   * {@link #initializeStream(DtlsClient.Prepared)}.
+   */
+  DtlsClient.Prepared prepareDtls() throws IOException {
+    return DtlsClient.prepare(host, port, pskIdentity, handshakeTimeoutMillis);
+  }
+
+  /**
+   * Get the layout of the entertainment area: its channels, where they are,
+   * and which lights render them.
+   * <p>
+   * Results are cached per bridge, application key, and area, and shared
+   * between clients. Once they are older than the
+   * {@link Builder#configurationTtl(Duration) configured TTL}, the bridge is
+   * asked for the configuration, its lights, and its entertainment services
+   * again (conditionally, for each one that came with an entity tag last time).
+   * @throws IOException if an error occurs while contacting the bridge's REST API
+   * @throws InterruptedException if the calling thread is interrupted while
+   * contacting the bridge's REST API
+   */
+  public EntertainmentConfiguration entertainmentConfiguration() throws IOException, InterruptedException {
+    String entertainmentAreaString = entertainmentAreaString();
+    String cacheKey = cacheKey("entertainment_configuration/" + entertainmentAreaString);
+
+    ResourceCache.Entry<EntertainmentConfiguration> cached = CONFIGURATIONS.get(cacheKey);
+    if (cached != null && cached.isFresh(System.nanoTime())) {
+      return cached.value();
+    }
+
+    JsonNode data = resourceData("entertainment_configuration/" + entertainmentAreaString);
+    if (!data.isArray() || data.size() != 1) {
+      throw new IOException(
+          "Expected response to contain exactly one entertainment configuration, but found "
+              + data
+      );
+    }
+
+    EntertainmentConfiguration result = Deserialization.entertainmentConfiguration(
+        data.get(0),
+        resourceData("entertainment"),
+        resourceData("light")
+    );
+    CONFIGURATIONS.put(cacheKey, result, null, configurationTtlNanos);
+    return result;
+  }
+
+  // Get the data of a resource, only downloading it again if it has changed since it was last cached
+  private JsonNode resourceData(String resource) throws IOException, InterruptedException {
+    String cacheKey = cacheKey(resource);
+    ResourceCache.Entry<JsonNode> cached = RESOURCES.get(cacheKey);
+    if (cached != null && cached.isFresh(System.nanoTime())) {
+      return cached.value();
+    }
+
+    HttpResponse<String> response = getResource(resource, cached != null ? cached.etag() : null);
+    if (cached != null && response.statusCode() == 304) {
+      RESOURCES.revalidate(cacheKey, cached, configurationTtlNanos);
+      return cached.value();
+    }
+
+    JsonNode result = parseResponse(response).path("data");
+    RESOURCES.put(
+        cacheKey,
+        result,
+        response.headers().firstValue("ETag").orElse(null),
+        configurationTtlNanos
     );
+    return result;
+  }
+
+  private String cacheKey(String resource) {
+    return baseUri + " " + username + " " + resource;
   }
 
   /**
@@ -260,30 +694,412 @@ public class HueEntertainmentClient implements AutoCloseable {
 
   /**
    * Set colors for specific lights.
+   * <p>
+   * Frames with more lights than fit in a single message (at most 20, or
+   * fewer if the path to the bridge has a small MTU) are split across as few
+   * datagrams as possible, which are sent together and share a sequence
+   * number.
    * @param lights the lights to set
    * @throws IOException if an error occurs while contacting the bridge's DTLS API
+   * and the client's {@link SendFailurePolicy} is {@link SendFailurePolicy#THROW};
+   * this includes failures to send an earlier frame that adaptive rate control
+   * held back
    */
   public void sendLights(Light... lights) throws IOException {
-    // TODO: Consider lazily initializing the DTLS client here so that users can
-    //       initialize streams via their own flow.
-    if (dtlsClient == null) {
-      throw new IllegalStateException("Must initialize stream before sending colors to bridge");
+    trySendLights(lights);
+  }
+
+  /**
+   * Like {@link #sendLights(Light...)}, but reports what became of the frame.
+   * @return whether the frame was written to the bridge, as opposed to being
+   * dropped, held back by rate control, or lost to a send failure
+   */
+  boolean trySendLights(Light[] lights) throws IOException {
+    return trySendLights(lights, false);
+  }
+
+  /**
+   * Like {@link #trySendLights(Light[])}, but the frame is never held back by
+   * adaptive rate control, for callers that have already decided when it is
+   * due. It still counts towards the frame rate.
+   */
+  boolean sendLightsNow(Light[] lights) throws IOException {
+    return trySendLights(lights, true);
+  }
+
+  private boolean trySendLights(Light[] lights, boolean immediate) throws IOException {
+    if (!readyToSend(lights.length)) {
+      return false;
+    }
+    synchronized (sendLock) {
+      if (streamLost()) {
+        return false;
+      }
+
+      FrameEncodeEvent encodeEvent = new FrameEncodeEvent();
+      encodeEvent.begin();
+      int numDatagrams = allocateDatagrams(lights.length);
+      for (int i = 0; i < numDatagrams; i++) {
+        int offset = i * lightsPerDatagram;
+        datagramSizes[i] = Serialization.serializeStreamCommand(
+            datagrams[i],
+            colorSpace,
+            sequence,
+            entertainmentArea,
+            lights,
+            offset,
+            Math.min(lightsPerDatagram, lights.length - offset)
+        );
+      }
+      commitEncodeEvent(encodeEvent, lights.length, numDatagrams);
+
+      return send(numDatagrams, lights.length, immediate);
     }
+  }
 
-    if (lights.length == 0) {
+  /**
+   * Set colors for specific lights that have already been encoded in the
+   * format used by {@link Light#serializeTo(ByteBuffer)}: seven bytes per
+   * light, consisting of a one-byte channel followed by a
+   * {@link HueColor#serializeTo(ByteBuffer) six-byte color}. This allows
+   * frames to be produced without allocating a {@link Light} per channel.
+   * @param lights the encoded lights, between the buffer's position and its
+   *               limit; the buffer's position will be advanced to its limit
+   * @throws IOException if an error occurs while contacting the bridge's DTLS API
+   * and the client's {@link SendFailurePolicy} is {@link SendFailurePolicy#THROW};
+   * this includes failures to send an earlier frame that adaptive rate control
+   * held back
+   */
+  public void sendEncodedLights(ByteBuffer lights) throws IOException {
+    int numLights = Validation.encodedLights(lights);
+    if (!readyToSend(numLights)) {
+      lights.position(lights.limit());
       return;
     }
+    synchronized (sendLock) {
+      if (streamLost()) {
+        lights.position(lights.limit());
+        return;
+      }
 
-    byte[] serialized = Serialization.serializeStreamCommand(
-        colorSpace,
-        entertainmentArea,
-        lights
-    );
+      FrameEncodeEvent encodeEvent = new FrameEncodeEvent();
+      encodeEvent.begin();
+      int numDatagrams = allocateDatagrams(numLights);
+      for (int i = 0; i < numDatagrams; i++) {
+        datagramSizes[i] = Serialization.serializeStreamCommand(
+            datagrams[i],
+            colorSpace,
+            sequence,
+            entertainmentArea,
+            lights,
+            Math.min(lightsPerDatagram, numLights - i * lightsPerDatagram)
+        );
+      }
+      commitEncodeEvent(encodeEvent, numLights, numDatagrams);
 
+      send(numDatagrams, numLights, false);
+    }
+  }
+
+  private static int lightsPerDatagram(DtlsClient dtlsClient) throws IOException {
+    int sendLimit = dtlsClient.sendLimit();
+    int result = Serialization.lightsPerMessage(sendLimit);
+    if (result == 0) {
+      throw new IOException(
+          "Cannot send colors to bridge; the DTLS send limit of " + sendLimit
+              + " bytes is too small for a message with a single light"
+      );
+    }
+    return result;
+  }
+
+  /**
+   * Stop sending repeats of the frame currently being transmitted, if any, so
+   * that a more urgent frame can go out sooner. At least one copy of every
+   * frame is always sent. The next frame is also sent right away, even if
+   * adaptive rate control would otherwise hold it back.
+   */
+  void preemptRepeats() {
+    preemptions.incrementAndGet();
+  }
+
+  // Make sure there are enough datagram buffers for a frame, returning how many it needs
+  private int allocateDatagrams(int numLights) {
+    int numDatagrams = (numLights + lightsPerDatagram - 1) / lightsPerDatagram;
+    if (datagrams.length < numDatagrams) {
+      datagrams = Arrays.copyOf(datagrams, numDatagrams);
+      datagramSizes = Arrays.copyOf(datagramSizes, numDatagrams);
+    }
+    int datagramSize = Serialization.messageSize(lightsPerDatagram);
+    for (int i = 0; i < numDatagrams; i++) {
+      if (datagrams[i] == null || datagrams[i].length < datagramSize) {
+        datagrams[i] = new byte[datagramSize];
+      }
+    }
+    return numDatagrams;
+  }
+
+  // Returns false if the frame should not be sent. Called without holding sendLock, since
+  // starting the stream involves the REST API and a handshake
+  private boolean readyToSend(int numLights) throws IOException {
+    boolean reconnect;
+    synchronized (sendLock) {
+      if (closed) {
+        throw new IllegalStateException("Cannot send colors to bridge after client has been closed");
+      }
+      if (dtlsClient == null && !reconnectRequired && !lazyStart) {
+        throw new IllegalStateException("Must initialize stream before sending colors to bridge");
+      }
+      if (deferredFailure != null) {
+        IOException failure = deferredFailure;
+        deferredFailure = null;
+        throw failure;
+      }
+
+      if (numLights == 0) {
+        return false;
+      }
+
+      long now = System.nanoTime();
+      if (backOffUntilNanos != 0) {
+        if (now - backOffUntilNanos < 0) {
+          metrics.recordFrameDropped();
+          return false;
+        }
+        backOffUntilNanos = 0;
+      }
+
+      if (dtlsClient != null) {
+        return true;
+      }
+      if (starting) {
+        metrics.recordFrameDropped();
+        return false;
+      }
+      // Either a lazy start, or a restart because the bridge may have ended the stream as well
+      starting = true;
+      reconnect = reconnectRequired;
+    }
+
+    try {
+      initializeStream();
+    } catch (InterruptedException e) {
+      // Not a failure of the bridge; the interrupt status tells the caller why the frame was dropped
+      Thread.currentThread().interrupt();
+      synchronized (sendLock) {
+        starting = false;
+      }
+      metrics.recordFrameDropped();
+      return false;
+    } catch (IOException e) {
+      synchronized (sendLock) {
+        starting = false;
+        handleSendFailure(e);
+      }
+      return false;
+    } catch (RuntimeException e) {
+      synchronized (sendLock) {
+        starting = false;
+      }
+      throw e;
+    }
+    synchronized (sendLock) {
+      starting = false;
+    }
+    if (reconnect) {
+      metrics.recordReconnect();
+    }
+    return true;
+  }
+
+  // Whether the stream went away since readyToSend; the frame is dropped if so. Requires sendLock
+  private boolean streamLost() {
+    if (dtlsClient == null) {
+      metrics.recordFrameDropped();
+      return true;
+    }
+    return false;
+  }
+
+  // Send a freshly-encoded frame now, or hold it back until rate control allows it; returns
+  // whether it was sent now
+  private boolean send(int numDatagrams, int numLights, boolean immediate) throws IOException {
+    boolean replacesDeferredFrame = deferredFrame;
+    if (replacesDeferredFrame) {
+      deferredFrame = false;
+      metrics.recordFrameSkipped();
+    }
+
+    long preemptions = this.preemptions.get();
+    if (rateController != null && (immediate || preemptions != sentPreemptions)) {
+      // Urgent frames don't wait for the next slot, but still count towards the frame rate
+      rateController.admitNow(System.nanoTime());
+    } else if (rateController != null && !rateController.admit(System.nanoTime())) {
+      deferredFrame = true;
+      deferredDatagrams = numDatagrams;
+      deferredLights = numLights;
+      // Otherwise, the sender is already waiting for the next slot
+      if (!replacesDeferredFrame) {
+        wakeDeferredFrameSender();
+      }
+      return false;
+    }
+
+    sentPreemptions = preemptions;
+    return transmit(numDatagrams, numLights);
+  }
+
+  private void wakeDeferredFrameSender() {
+    if (deferredFrameSender == null) {
+      deferredFrameSender = new Thread(this::sendDeferredFrames, "joplin-deferred-frames");
+      deferredFrameSender.setDaemon(true);
+      deferredFrameSender.start();
+    } else {
+      LockSupport.unpark(deferredFrameSender);
+    }
+  }
+
+  private void sendDeferredFrames() {
+    while (!closed) {
+      long waitNanos;
+      synchronized (sendLock) {
+        waitNanos = sendDeferredFrame();
+      }
+      if (waitNanos > 0) {
+        LockSupport.parkNanos(this, waitNanos);
+      } else {
+        LockSupport.park(this);
+      }
+    }
+  }
+
+  // Returns how long to wait before the deferred frame can be sent, or 0 if there's nothing left to send
+  private long sendDeferredFrame() {
+    if (!deferredFrame) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    long waitNanos = rateController.nanosUntilNextFrame(now);
+    if (waitNanos > 0) {
+      return waitNanos;
+    }
+
+    deferredFrame = false;
+    if (closed || dtlsClient == null) {
+      return 0;
+    }
+    rateController.admit(now);
+    try {
+      transmit(deferredDatagrams, deferredLights);
+    } catch (IOException e) {
+      // Only thrown with SendFailurePolicy.THROW; the next sender gets it instead
+      deferredFailure = e;
+    }
+    return 0;
+  }
+
+  // Returns false if the frame could not be sent, but the failure was handled without throwing
+  private boolean transmit(int numDatagrams, int numLights) throws IOException {
+    int tries = rateController != null ? rateController.tries() : this.tries;
+    long preemption = preemptions.get();
+    // Every datagram of a frame shares its sequence number
+    sequence++;
+    FrameSendEvent sendEvent = new FrameSendEvent();
+    sendEvent.begin();
+    long sendStart = System.nanoTime();
+    int sent = 0;
     // UDP, baby
-    for (int i = 0; i < tries; i++) {
-      dtlsClient.send(serialized);
+    try {
+      while (sent < tries && (sent == 0 || preemptions.get() == preemption)) {
+        for (int j = 0; j < numDatagrams; j++) {
+          dtlsClient.send(datagrams[j], 0, datagramSizes[j]);
+        }
+        sent++;
+      }
+      if (sendEvent.shouldCommit()) {
+        sendEvent.channels = numLights;
+        sendEvent.repeats = sent;
+        sendEvent.datagrams = numDatagrams;
+        sendEvent.bytes = frameSize(numDatagrams);
+        sendEvent.commit();
+      }
+    } catch (IOException e) {
+      if (rateController != null) {
+        rateController.onSendFailed(System.nanoTime());
+      }
+      handleSendFailure(e);
+      return false;
     }
+
+    if (rateController != null) {
+      long sendEnd = System.nanoTime();
+      // Scale up to a full set of tries if some were preempted
+      rateController.onSendSucceeded(sendEnd, (sendEnd - sendStart) * tries / sent);
+    }
+    consecutiveFailures = 0;
+    metrics.recordFrameSent();
+    if (awaitingFirstFrame) {
+      awaitingFirstFrame = false;
+      metrics.recordTimeToFirstFrame(System.nanoTime() - streamStartNanos);
+    }
+    return true;
+  }
+
+  private void commitEncodeEvent(FrameEncodeEvent event, int numLights, int numDatagrams) {
+    if (event.shouldCommit()) {
+      event.channels = numLights;
+      event.bytes = frameSize(numDatagrams);
+      event.commit();
+    }
+  }
+
+  private int frameSize(int numDatagrams) {
+    int result = 0;
+    for (int i = 0; i < numDatagrams; i++) {
+      result += datagramSizes[i];
+    }
+    return result;
+  }
+
+  /**
+   * Create a {@link java.util.concurrent.Flow.Subscriber} that sends frames
+   * from a publisher to this client at the
+   * {@link FrameSubscriber.Builder#DEFAULT_FRAME_RATE default frame rate}.
+   * Use {@link FrameSubscriber#builder(HueEntertainmentClient)} for more
+   * control.
+   * @param overflowPolicy what to do when frames are published faster than
+   *                       they can be sent
+   * @param bufferSize the most frames to hold while waiting to send them
+   * @return the subscriber; never null
+   */
+  public FrameSubscriber subscriber(OverflowPolicy overflowPolicy, int bufferSize) {
+    return FrameSubscriber.builder(this)
+        .overflowPolicy(overflowPolicy)
+        .bufferSize(bufferSize)
+        .build();
+  }
+
+  /**
+   * @return live counters for the frames this client has sent
+   */
+  public StreamMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Hand any send failures that have not yet been consumed to the given
+   * consumer, oldest first. Only failures that were not thrown (see
+   * {@link SendFailurePolicy}) are recorded. At most 1024 failures are
+   * retained; if more occur before being drained, the newest are discarded.
+   * <p>
+   * This should not be used in combination with a
+   * {@link Builder#sendFailureListener(SendFailureListener) send failure listener},
+   * which consumes the same failures. Each failure is only valid until the
+   * consumer returns; see {@link SendFailure}.
+   * @return the number of failures consumed
+   */
+  public int drainSendFailures(Consumer<SendFailure> consumer) {
+    return sendFailures.drain(consumer);
   }
 
   /**
@@ -292,7 +1108,12 @@ public class HueEntertainmentClient implements AutoCloseable {
    */
   @Override
   public void close() throws IOException, InterruptedException {
+    closed = true;
     synchronized (this) {
+      if (sendFailureDispatcher != null) {
+        LockSupport.unpark(sendFailureDispatcher);
+      }
+
       if (httpThread != null) {
         httpThread.interrupt();
         httpThread = null;
@@ -300,9 +1121,91 @@ public class HueEntertainmentClient implements AutoCloseable {
       }
     }
 
-    if (dtlsClient != null) {
-      dtlsClient.close();
-      dtlsClient = null;
+    synchronized (sendLock) {
+      deferredFrame = false;
+      if (deferredFrameSender != null) {
+        LockSupport.unpark(deferredFrameSender);
+      }
+      if (dtlsClient != null) {
+        dtlsClient.close();
+        dtlsClient = null;
+      }
+    }
+  }
+
+  private void handleSendFailure(IOException e) throws IOException {
+    metrics.recordSendFailure();
+    consecutiveFailures++;
+
+    SendFailureEvent event = new SendFailureEvent();
+    if (event.shouldCommit()) {
+      event.message = e.toString();
+      event.consecutiveFailures = consecutiveFailures;
+      event.commit();
+    }
+
+    if (sendFailurePolicy == SendFailurePolicy.THROW) {
+      throw e;
+    }
+
+    sendFailures.publish(recordSendFailure, e);
+    if (sendFailureListener != null) {
+      wakeSendFailureDispatcher();
+    }
+
+    switch (sendFailurePolicy) {
+      case DROP:
+        break;
+      case RECONNECT:
+        if (dtlsClient != null) {
+          try {
+            dtlsClient.close();
+          } catch (IOException closeFailure) {
+            // We're replacing it anyways
+          }
+          dtlsClient = null;
+          // Only once a stream has been established; a failed lazy start is just retried
+          reconnectRequired = true;
+        }
+        // Reconnecting involves the REST API and a handshake; don't hammer the bridge with them
+        backOff();
+        break;
+      case BACK_OFF:
+        backOff();
+        break;
+      default:
+        throw new IllegalStateException("Unexpected send failure policy " + sendFailurePolicy);
+    }
+  }
+
+  // Skip frames for a while, twice as long as last time for each consecutive failure
+  private void backOff() {
+    int doublings = (int) Math.min(consecutiveFailures - 1, 16);
+    long backOff = Math.min(INITIAL_BACK_OFF_NANOS << doublings, MAX_BACK_OFF_NANOS);
+    // Zero is reserved to mean "not backing off"
+    backOffUntilNanos = (System.nanoTime() + backOff) | 1;
+  }
+
+  private synchronized void wakeSendFailureDispatcher() {
+    if (sendFailureDispatcher == null) {
+      sendFailureDispatcher = new Thread(this::dispatchSendFailures, "joplin-send-failures");
+      sendFailureDispatcher.setDaemon(true);
+      sendFailureDispatcher.start();
+    } else {
+      LockSupport.unpark(sendFailureDispatcher);
+    }
+  }
+
+  private void dispatchSendFailures() {
+    while (!closed) {
+      sendFailures.drain(failure -> {
+        try {
+          sendFailureListener.onSendFailure(failure);
+        } catch (RuntimeException e) {
+          // Don't let a misbehaving listener stop us from delivering later failures
+        }
+      });
+      LockSupport.park(this);
     }
   }
 
@@ -320,7 +1223,67 @@ public class HueEntertainmentClient implements AutoCloseable {
     return result;
   }
 
+  private static URI restUri(String host) {
+    String baseUriString = "https://" + host;
+    try {
+      return new URI(baseUriString);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(
+          "Failed to parse URI from string '" + baseUriString + "'",
+          e
+      );
+    }
+  }
+
+  private String entertainmentAreaString() {
+    return new String(
+        entertainmentArea,
+        StandardCharsets.UTF_8
+    );
+  }
+
+  private HttpResponse<String> getResource(String resource, String etag) throws IOException, InterruptedException {
+    URI requestUri = baseUri.resolve("/clip/v2/resource/" + resource);
+
+    HttpRequest.Builder request = HttpRequest.newBuilder(requestUri)
+        .GET()
+        .header("hue-application-key", username);
+    if (etag != null) {
+      request.header("If-None-Match", etag);
+    }
+
+    return httpClient.send(
+        request.build(),
+        HttpResponse.BodyHandlers.ofString()
+    );
+  }
+
   private void sendEntertainmentConfigurationRequest(boolean start) throws IOException, InterruptedException {
+    StreamControlEvent event = new StreamControlEvent();
+    event.begin();
+    HttpResponse<String> response = null;
+    try {
+      response = httpClient.send(
+          entertainmentConfigurationRequest(start),
+          HttpResponse.BodyHandlers.ofString()
+      );
+    } finally {
+      commitStreamControlEvent(event, start, response);
+    }
+
+    parseResponse(response);
+  }
+
+  private void commitStreamControlEvent(StreamControlEvent event, boolean start, HttpResponse<?> response) {
+    if (event.shouldCommit()) {
+      event.entertainmentArea = entertainmentAreaString();
+      event.action = start ? "start" : "stop";
+      event.statusCode = response != null ? response.statusCode() : 0;
+      event.commit();
+    }
+  }
+
+  private HttpRequest entertainmentConfigurationRequest(boolean start) throws IOException {
     ObjectMapper objectMapper = new ObjectMapper();
 
     Map<String, String> requestBody = new HashMap<>();
@@ -328,24 +1291,39 @@ public class HueEntertainmentClient implements AutoCloseable {
     requestBody.put("action", action);
     String serializedRequestBody = objectMapper.writeValueAsString(requestBody);
 
-    String entertainmentAreaString = new String(
-        entertainmentArea,
-        StandardCharsets.UTF_8
-    );
-
     URI requestUri = baseUri.resolve(
-        "/clip/v2/resource/entertainment_configuration/" + entertainmentAreaString
+        "/clip/v2/resource/entertainment_configuration/" + entertainmentAreaString()
     );
 
-    HttpRequest request = HttpRequest.newBuilder(requestUri)
+    return HttpRequest.newBuilder(requestUri)
         .PUT(HttpRequest.BodyPublishers.ofString(serializedRequestBody))
         .header("hue-application-key", username)
         .build();
+  }
 
-    HttpResponse<String> response = httpClient.send(
-        request,
-        HttpResponse.BodyHandlers.ofString()
-    );
+  private static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw e;
+    } catch (CancellationException e) {
+      throw new IOException("Request was cancelled", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Request failed", cause);
+    }
+  }
+
+  private static JsonNode parseResponse(HttpResponse<String> response) throws IOException {
+    ObjectMapper objectMapper = new ObjectMapper();
 
     if (response.statusCode() < 200 | response.statusCode() >= 300) {
       throw new IOException(
@@ -368,6 +1346,8 @@ public class HueEntertainmentClient implements AutoCloseable {
           "Response contains errors: " + errors
       );
     }
+
+    return deserializedResponseBody;
   }
 
 }
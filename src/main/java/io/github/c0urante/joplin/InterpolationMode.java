@@ -0,0 +1,34 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+/**
+ * The color space in which to blend between two colors.
+ */
+public enum InterpolationMode {
+
+  /**
+   * Blend the red, green, and blue components independently.
+   */
+  RGB,
+
+  /**
+   * Blend CIE xy chromaticity and brightness. Transitions between very
+   * different hues stay saturated instead of passing through gray.
+   */
+  XY
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+/**
+ * Notified when a {@link PresentationScheduler} drops a frame because its
+ * presentation time has already passed. Called from the scheduler's thread
+ * without holding any of its locks; frames are not sent while the listener
+ * runs, so implementations should return quickly. Exceptions thrown by the
+ * listener are ignored.
+ *
+ * @see PresentationScheduler.Builder#lateFrameListener(LateFrameListener)
+ */
+@FunctionalInterface
+public interface LateFrameListener {
+
+  /**
+   * @param presentationTimeNanos the media time the frame was meant to be
+   *                              displayed at
+   * @param latenessNanos how far past the time the frame had to be sent at,
+   *                      to be displayed on time, the scheduler was
+   */
+  void onLateFrame(long presentationTimeNanos, long latenessNanos);
+
+}
@@ -34,6 +34,14 @@ public class Light {
     this.color = color;
   }
 
+  public int channel() {
+    return channel & 0xFF;
+  }
+
+  public HueColor color() {
+    return color;
+  }
+
   public void serializeTo(ByteBuffer byteBuffer) {
     byteBuffer.put(channel);
     color.serializeTo(byteBuffer);
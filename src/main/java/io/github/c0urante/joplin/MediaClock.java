@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+/**
+ * The timeline that a {@link PresentationScheduler} presents frames against,
+ * such as the playback position of an audio or video stream.
+ * <p>
+ * The clock is expected to advance at roughly the same rate as wall time
+ * while playing. It may pause or jump; frames are simply held until their
+ * presentation time comes around.
+ */
+@FunctionalInterface
+public interface MediaClock {
+
+  /**
+   * @return the current media time, in nanoseconds
+   */
+  long nanos();
+
+  /**
+   * @return a clock that follows {@link System#nanoTime()}
+   */
+  static MediaClock monotonic() {
+    return System::nanoTime;
+  }
+
+}
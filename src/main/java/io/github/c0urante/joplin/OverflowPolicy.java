@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+/**
+ * What a {@link FrameSubscriber} does when frames arrive faster than they can
+ * be sent to the bridge.
+ */
+public enum OverflowPolicy {
+
+  /**
+   * Keep only the most recent frame; any frame that is replaced before it can
+   * be sent is dropped. The publisher is never slowed down.
+   */
+  CONFLATE,
+
+  /**
+   * Keep a bounded buffer of frames, dropping the oldest one when a new frame
+   * arrives and the buffer is full. The publisher is never slowed down.
+   */
+  DROP_OLDEST,
+
+  /**
+   * Keep a bounded buffer of frames and only request more from the publisher
+   * as frames are sent, so that the publisher slows down to the frame rate.
+   */
+  BUFFER
+
+}
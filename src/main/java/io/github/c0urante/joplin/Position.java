@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+/**
+ * The location of an entertainment channel within its area. Each coordinate
+ * ranges from -1 to 1.
+ *
+ * @see <a href="https://developers.meethue.com/develop/hue-entertainment/hue-entertainment-api/#coordinate-system">
+ *   Hue Entertainment API coordinate system</a>
+ */
+public class Position {
+
+  private final double x;
+  private final double y;
+  private final double z;
+
+  public Position(double x, double y, double z) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+  }
+
+  /**
+   * @return the left (-1) to right (1) coordinate
+   */
+  public double x() {
+    return x;
+  }
+
+  /**
+   * @return the back (-1) to front (1) coordinate
+   */
+  public double y() {
+    return y;
+  }
+
+  /**
+   * @return the bottom (-1) to top (1) coordinate
+   */
+  public double z() {
+    return z;
+  }
+
+  public double distanceTo(Position other) {
+    double dx = x - other.x;
+    double dy = y - other.y;
+    double dz = z - other.z;
+    return Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+
+  @Override
+  public String toString() {
+    return "(" + x + ", " + y + ", " + z + ")";
+  }
+
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import io.github.c0urante.joplin.internal.Validation;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends frames to a {@link HueEntertainmentClient} so that they are displayed
+ * at a given time on a {@link MediaClock}, such as the playback position of
+ * an audio or video stream.
+ * <p>
+ * Each frame is sent once the clock reaches its presentation time minus the
+ * {@link Builder#outputLatency(Duration) output latency}: the time it takes
+ * from a frame being sent until the lamps change, which can be calibrated by
+ * eye or with a light sensor. Frames scheduled ahead of time are held in
+ * presentation order. Frames that can no longer be sent on time, because the
+ * scheduler fell behind by more than the
+ * {@link Builder#lateTolerance(Duration) late tolerance}, are dropped and
+ * reported as late. A frame that is still within the tolerance but is
+ * already followed by a newer frame that is due is dropped too, and counted
+ * as {@link #framesSuperseded() superseded} instead.
+ * <p>
+ * Due frames are sent right away even if the client uses
+ * {@link HueEntertainmentClient.Builder#adaptiveFrameRate(double, double) adaptive rate control},
+ * which would otherwise hold them back past their presentation time.
+ * <p>
+ * Closing the scheduler stops it from sending any more frames, but does not
+ * close the underlying client.
+ */
+public class PresentationScheduler implements AutoCloseable {
+
+  // Re-check the clock at least this often, in case it doesn't advance in step with wall time
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final HueEntertainmentClient client;
+  private final MediaClock clock;
+  private final long lateToleranceNanos;
+  private final LateFrameListener lateFrameListener;
+  private final Thread thread;
+  private final AtomicLong framesPresented = new AtomicLong();
+  private final AtomicLong framesLate = new AtomicLong();
+  private final AtomicLong framesSuperseded = new AtomicLong();
+
+  // Only accessed from the thread that polls for frames
+  private final List<ScheduledFrame> lateFrames = new ArrayList<>();
+
+  // Guarded by this
+  private final PriorityQueue<ScheduledFrame> queue = new PriorityQueue<>(
+      Comparator.comparingLong((ScheduledFrame frame) -> frame.presentationTimeNanos)
+          .thenComparingLong(frame -> frame.sequence)
+  );
+  private long sequence = 0;
+
+  private volatile long outputLatencyNanos;
+  private volatile long lastLatenessNanos = 0;
+  private volatile long maxLatenessNanos = 0;
+  private volatile boolean running = false;
+  private volatile Exception failure = null;
+
+  private PresentationScheduler(
+      HueEntertainmentClient client,
+      MediaClock clock,
+      Duration outputLatency,
+      Duration lateTolerance,
+      LateFrameListener lateFrameListener
+  ) {
+    Objects.requireNonNull(client, "Client must be set");
+    Objects.requireNonNull(clock, "Media clock must be set");
+
+    this.client = client;
+    this.clock = clock;
+    this.outputLatencyNanos = Validation.outputLatency(outputLatency).toNanos();
+    this.lateToleranceNanos = Validation.lateTolerance(lateTolerance).toNanos();
+    this.lateFrameListener = lateFrameListener;
+    this.thread = new Thread(this::run, "joplin-scheduler");
+    this.thread.setDaemon(true);
+  }
+
+  public static Builder builder(HueEntertainmentClient client) {
+    return new Builder(client);
+  }
+
+  /**
+   * Builder for {@link PresentationScheduler}.
+   */
+  public static class Builder {
+
+    public static final Duration DEFAULT_OUTPUT_LATENCY = Duration.ZERO;
+    public static final Duration DEFAULT_LATE_TOLERANCE = Duration.ofMillis(20);
+
+    private final HueEntertainmentClient client;
+    private MediaClock clock = MediaClock.monotonic();
+    private Duration outputLatency = DEFAULT_OUTPUT_LATENCY;
+    private Duration lateTolerance = DEFAULT_LATE_TOLERANCE;
+    private LateFrameListener lateFrameListener = null;
+
+    private Builder(HueEntertainmentClient client) {
+      this.client = client;
+    }
+
+    /**
+     * The clock that presentation times are measured against. Defaults to
+     * {@link MediaClock#monotonic()}.
+     */
+    public Builder clock(MediaClock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /**
+     * How long before its presentation time each frame should be sent. Can be
+     * adjusted later via {@link PresentationScheduler#outputLatency(Duration)}.
+     */
+    public Builder outputLatency(Duration outputLatency) {
+      this.outputLatency = outputLatency;
+      return this;
+    }
+
+    /**
+     * How late a frame may be sent before it is dropped instead.
+     */
+    public Builder lateTolerance(Duration lateTolerance) {
+      this.lateTolerance = lateTolerance;
+      return this;
+    }
+
+    public Builder lateFrameListener(LateFrameListener lateFrameListener) {
+      this.lateFrameListener = lateFrameListener;
+      return this;
+    }
+
+    public PresentationScheduler build() {
+      return new PresentationScheduler(client, clock, outputLatency, lateTolerance, lateFrameListener);
+    }
+
+  }
+
+  /**
+   * Begin sending frames to the client. The client's stream must already be
+   * initialized.
+   */
+  public void start() {
+    running = true;
+    thread.start();
+  }
+
+  /**
+   * Schedule a frame. The first color will be used for channel 0, the next
+   * for channel 1, and so on.
+   * @param presentationTimeNanos the media time at which the frame should be
+   *                              displayed
+   * @param colors the colors to display
+   * @throws IOException if a previous frame could not be sent, in which case
+   * the scheduler will have stopped
+   */
+  public void schedule(long presentationTimeNanos, HueColor... colors) throws IOException {
+    Light[] lights = new Light[colors.length];
+    for (int i = 0; i < colors.length; i++) {
+      lights[i] = new Light(i, colors[i]);
+    }
+    schedule(presentationTimeNanos, lights);
+  }
+
+  /**
+   * Schedule a frame for specific lights.
+   * @param presentationTimeNanos the media time at which the frame should be
+   *                              displayed
+   * @param lights the lights to display
+   * @throws IOException if a previous frame could not be sent, in which case
+   * the scheduler will have stopped
+   */
+  public void schedule(long presentationTimeNanos, Light... lights) throws IOException {
+    Exception failure = this.failure;
+    if (failure != null) {
+      throw new IOException("Scheduler stopped after failing to send a frame", failure);
+    }
+
+    enqueue(presentationTimeNanos, lights);
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * Drop every frame that has not been sent yet, e.g. after seeking. Frames
+   * dropped this way are not reported as late.
+   */
+  public synchronized void clear() {
+    queue.clear();
+  }
+
+  /**
+   * Change the output latency, e.g. after recalibrating. Takes effect for
+   * frames that have not been sent yet.
+   */
+  public void outputLatency(Duration outputLatency) {
+    this.outputLatencyNanos = Validation.outputLatency(outputLatency).toNanos();
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * @return the number of frames waiting for their presentation time
+   */
+  public synchronized int queueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * @return the number of frames sent to the bridge
+   */
+  public long framesPresented() {
+    return framesPresented.get();
+  }
+
+  /**
+   * @return the number of frames dropped for being late
+   */
+  public long framesLate() {
+    return framesLate.get();
+  }
+
+  /**
+   * @return the number of frames dropped, while still on time, because a
+   * newer frame was also due
+   */
+  public long framesSuperseded() {
+    return framesSuperseded.get();
+  }
+
+  /**
+   * @return how late, in nanoseconds, the most recent frame dropped for being
+   * late was; 0 if no frames have been dropped for being late
+   */
+  public long lastLatenessNanos() {
+    return lastLatenessNanos;
+  }
+
+  /**
+   * @return the greatest lateness, in nanoseconds, of any frame dropped for
+   * being late
+   */
+  public long maxLatenessNanos() {
+    return maxLatenessNanos;
+  }
+
+  /**
+   * @return the failure that stopped the scheduler, if any
+   */
+  public Exception failure() {
+    return failure;
+  }
+
+  /**
+   * Stop sending frames.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    LockSupport.unpark(thread);
+    if (thread.isAlive() && thread != Thread.currentThread()) {
+      thread.join(TimeUnit.NANOSECONDS.toMillis(MAX_PARK_NANOS) + 1_000);
+    }
+  }
+
+  synchronized void enqueue(long presentationTimeNanos, Light... lights) {
+    queue.add(new ScheduledFrame(presentationTimeNanos, sequence++, lights));
+  }
+
+  /**
+   * Take the frame that should be sent now, if any, dropping any frames that
+   * it supersedes or that are too late to send. The
+   * {@link LateFrameListener} is notified of late frames once the queue is no
+   * longer locked.
+   */
+  Light[] poll(long nowNanos) {
+    Light[] result = take(nowNanos);
+    for (ScheduledFrame frame : lateFrames) {
+      notifyLate(frame);
+    }
+    lateFrames.clear();
+    return result;
+  }
+
+  private synchronized Light[] take(long nowNanos) {
+    ScheduledFrame result = null;
+    while (!queue.isEmpty() && lateness(queue.peek(), nowNanos) >= 0) {
+      ScheduledFrame next = queue.poll();
+      if (result != null) {
+        drop(result, nowNanos);
+      }
+      result = next;
+    }
+
+    if (result == null) {
+      return null;
+    }
+    if (lateness(result, nowNanos) > lateToleranceNanos) {
+      drop(result, nowNanos);
+      return null;
+    }
+    return result.lights;
+  }
+
+  // How long until the next frame is due, capped so that the clock is re-checked periodically
+  private synchronized long parkNanos(long nowNanos) {
+    ScheduledFrame next = queue.peek();
+    if (next == null) {
+      return MAX_PARK_NANOS;
+    }
+    return Math.max(0, Math.min(-lateness(next, nowNanos), MAX_PARK_NANOS));
+  }
+
+  private void run() {
+    while (running) {
+      long now = clock.nanos();
+      Light[] frame = poll(now);
+      if (frame == null) {
+        long park = parkNanos(now);
+        if (park > 0) {
+          LockSupport.parkNanos(this, park);
+        }
+        continue;
+      }
+
+      boolean sent;
+      try {
+        sent = client.sendLightsNow(frame);
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+        running = false;
+        return;
+      }
+      if (sent) {
+        framesPresented.incrementAndGet();
+      }
+    }
+  }
+
+  private long lateness(ScheduledFrame frame, long nowNanos) {
+    return nowNanos - (frame.presentationTimeNanos - outputLatencyNanos);
+  }
+
+  private void drop(ScheduledFrame frame, long nowNanos) {
+    long lateness = lateness(frame, nowNanos);
+    if (lateness <= lateToleranceNanos) {
+      framesSuperseded.incrementAndGet();
+      return;
+    }
+
+    framesLate.incrementAndGet();
+    lastLatenessNanos = lateness;
+    if (lateness > maxLatenessNanos) {
+      maxLatenessNanos = lateness;
+    }
+    frame.latenessNanos = lateness;
+    lateFrames.add(frame);
+  }
+
+  private void notifyLate(ScheduledFrame frame) {
+    if (lateFrameListener == null) {
+      return;
+    }
+    try {
+      lateFrameListener.onLateFrame(frame.presentationTimeNanos, frame.latenessNanos);
+    } catch (RuntimeException e) {
+      // Don't let a misbehaving listener stop frames from being presented
+    }
+  }
+
+  private static class ScheduledFrame {
+    final long presentationTimeNanos;
+    final long sequence;
+    final Light[] lights;
+    // Only set once the frame has been dropped for being late
+    long latenessNanos = 0;
+
+    ScheduledFrame(long presentationTimeNanos, long sequence, Light[] lights) {
+      this.presentationTimeNanos = presentationTimeNanos;
+      this.sequence = sequence;
+      this.lights = lights;
+    }
+  }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import io.github.c0urante.joplin.internal.FrameLoop;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Combines colors from several sources of differing urgency into a single
+ * stream of frames, sent to a {@link HueEntertainmentClient} at a fixed frame
+ * rate.
+ * <p>
+ * Each source submits colors to a numbered lane; lane 0 has the lowest
+ * priority, and is meant for ambient background effects. Every channel is
+ * given the color from the highest lane that has set it, so an urgent cue only
+ * overrides the channels it touches, and only until its lane is
+ * {@link #clear(int) cleared}. Submitting to any lane above 0 also preempts
+ * the client: repeats of the frame currently being sent are abandoned, and the
+ * next frame goes out immediately instead of waiting for the next tick, or for
+ * the client's {@link HueEntertainmentClient.Builder#adaptiveFrameRate(double, double)
+ * adaptive frame rate} to allow it.
+ * <p>
+ * Closing the lanes stops them from sending any more frames, but does not
+ * close the underlying client.
+ */
+public class PriorityLanes implements AutoCloseable {
+
+  private static final int CHANNELS = 256;
+
+  private final HueEntertainmentClient client;
+  private final FrameLoop frameLoop;
+  private final LaneMetrics[] metrics;
+
+  // All guarded by this
+  private final Light[][] lanes;
+  private final long[] pendingSinceNanos;
+  private final Light[] scratch = new Light[CHANNELS];
+
+  // Only accessed from the frame loop
+  private final long[] cuedNanos;
+
+  private PriorityLanes(HueEntertainmentClient client, int lanes, double frameRate) {
+    Objects.requireNonNull(client, "Client must be set");
+    if (lanes <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid value " + lanes
+              + " for number of lanes; "
+              + "must be positive"
+      );
+    }
+
+    this.client = client;
+    this.lanes = new Light[lanes][CHANNELS];
+    this.pendingSinceNanos = new long[lanes];
+    this.cuedNanos = new long[lanes];
+    this.metrics = new LaneMetrics[lanes];
+    for (int i = 0; i < lanes; i++) {
+      this.metrics[i] = new LaneMetrics();
+    }
+    this.frameLoop = new FrameLoop("joplin-lanes", frameRate, this::sendFrame);
+  }
+
+  public static Builder builder(HueEntertainmentClient client) {
+    return new Builder(client);
+  }
+
+  /**
+   * Builder for {@link PriorityLanes}.
+   */
+  public static class Builder {
+
+    public static final int DEFAULT_LANES = 2;
+    public static final double DEFAULT_FRAME_RATE = 50;
+
+    private final HueEntertainmentClient client;
+    private int lanes = DEFAULT_LANES;
+    private double frameRate = DEFAULT_FRAME_RATE;
+
+    private Builder(HueEntertainmentClient client) {
+      this.client = client;
+    }
+
+    public Builder lanes(int lanes) {
+      this.lanes = lanes;
+      return this;
+    }
+
+    public Builder frameRate(double frameRate) {
+      this.frameRate = frameRate;
+      return this;
+    }
+
+    public PriorityLanes build() {
+      return new PriorityLanes(client, lanes, frameRate);
+    }
+
+  }
+
+  /**
+   * Latency counters for a single lane.
+   *
+   * @see PriorityLanes#metrics(int)
+   */
+  public static class LaneMetrics {
+
+    private final AtomicLong cues = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private volatile long lastLatencyNanos = 0;
+    private volatile long maxLatencyNanos = 0;
+
+    LaneMetrics() {
+    }
+
+    /**
+     * @return the number of frames sent that carried at least one new
+     * submission from this lane
+     */
+    public long cues() {
+      return cues.get();
+    }
+
+    /**
+     * @return how long, in nanoseconds, it took from the oldest submission
+     * carried by the most recent such frame until the frame was handed off to
+     * the network; 0 if there have been none
+     */
+    public long lastLatencyNanos() {
+      return lastLatencyNanos;
+    }
+
+    /**
+     * @return the highest cue-to-wire latency seen, in nanoseconds
+     */
+    public long maxLatencyNanos() {
+      return maxLatencyNanos;
+    }
+
+    /**
+     * @return the mean cue-to-wire latency, in nanoseconds, or 0 if there
+     * have been no cues
+     */
+    public long meanLatencyNanos() {
+      long cues = this.cues.get();
+      return cues != 0 ? totalLatencyNanos.get() / cues : 0;
+    }
+
+    // Only called from the frame loop, so there are no competing writes
+    void record(long latencyNanos) {
+      totalLatencyNanos.addAndGet(latencyNanos);
+      cues.incrementAndGet();
+      lastLatencyNanos = latencyNanos;
+      if (latencyNanos > maxLatencyNanos) {
+        maxLatencyNanos = latencyNanos;
+      }
+    }
+
+  }
+
+  /**
+   * Begin sending frames to the client. The client's stream must already be
+   * initialized.
+   */
+  public void start() {
+    frameLoop.start();
+  }
+
+  /**
+   * Set colors on a lane. The first color will be used for channel 0, the
+   * next for channel 1, and so on.
+   * @param lane the lane to set colors on
+   * @param colors the colors to set
+   * @throws IOException if a previous frame could not be sent, in which case
+   * the lanes will have stopped
+   */
+  public void submit(int lane, HueColor... colors) throws IOException {
+    Light[] lights = new Light[colors.length];
+    for (int i = 0; i < colors.length; i++) {
+      lights[i] = new Light(i, colors[i]);
+    }
+    submit(lane, lights);
+  }
+
+  /**
+   * Set colors for specific lights on a lane. Channels that are not included
+   * keep whatever color the lane last gave them, if any.
+   * @param lane the lane to set colors on
+   * @param lights the lights to set
+   * @throws IOException if a previous frame could not be sent, in which case
+   * the lanes will have stopped
+   */
+  public void submit(int lane, Light... lights) throws IOException {
+    checkFailure();
+    submit(System.nanoTime(), lane, lights);
+    if (lane > 0) {
+      preempt();
+    }
+  }
+
+  /**
+   * Remove every color from a lane, handing its channels back to the lanes
+   * below it.
+   * @param lane the lane to clear
+   * @throws IOException if a previous frame could not be sent, in which case
+   * the lanes will have stopped
+   */
+  public void clear(int lane) throws IOException {
+    checkFailure();
+    clear(System.nanoTime(), lane);
+    if (lane > 0) {
+      preempt();
+    }
+  }
+
+  /**
+   * @param lane the lane to get metrics for
+   * @return live latency counters for the lane
+   */
+  public LaneMetrics metrics(int lane) {
+    validateLane(lane);
+    return metrics[lane];
+  }
+
+  /**
+   * Stop sending frames.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    frameLoop.close();
+  }
+
+  synchronized void submit(long nowNanos, int lane, Light... lights) {
+    validateLane(lane);
+    for (Light light : lights) {
+      lanes[lane][light.channel()] = light;
+    }
+    markPending(nowNanos, lane);
+  }
+
+  synchronized void clear(long nowNanos, int lane) {
+    validateLane(lane);
+    Arrays.fill(lanes[lane], null);
+    markPending(nowNanos, lane);
+  }
+
+  /**
+   * Combine all lanes into a single frame, and note when the oldest
+   * submission to each lane that it carries was made.
+   */
+  synchronized Light[] frame(long[] cuedNanos) {
+    int size = 0;
+    for (int channel = 0; channel < CHANNELS; channel++) {
+      for (int lane = lanes.length - 1; lane >= 0; lane--) {
+        Light light = lanes[lane][channel];
+        if (light != null) {
+          scratch[size++] = light;
+          break;
+        }
+      }
+    }
+
+    System.arraycopy(pendingSinceNanos, 0, cuedNanos, 0, pendingSinceNanos.length);
+    Arrays.fill(pendingSinceNanos, 0);
+    return Arrays.copyOf(scratch, size);
+  }
+
+  private void sendFrame(long nowNanos) throws IOException {
+    Light[] frame = frame(cuedNanos);
+    if (frame.length == 0) {
+      return;
+    }
+
+    if (!client.trySendLights(frame)) {
+      // The client dropped or held back the frame; the submissions it carried are still pending
+      restorePending(cuedNanos);
+      return;
+    }
+
+    long wireNanos = System.nanoTime();
+    for (int lane = 0; lane < cuedNanos.length; lane++) {
+      if (cuedNanos[lane] != 0) {
+        metrics[lane].record(wireNanos - cuedNanos[lane]);
+      }
+    }
+  }
+
+  private synchronized void restorePending(long[] cuedNanos) {
+    for (int lane = 0; lane < cuedNanos.length; lane++) {
+      if (cuedNanos[lane] != 0) {
+        pendingSinceNanos[lane] = cuedNanos[lane];
+      }
+    }
+  }
+
+  private void markPending(long nowNanos, int lane) {
+    if (pendingSinceNanos[lane] == 0) {
+      // Zero is reserved to mean "nothing pending"
+      pendingSinceNanos[lane] = nowNanos | 1;
+    }
+  }
+
+  private void preempt() {
+    client.preemptRepeats();
+    frameLoop.wakeUp();
+  }
+
+  private void checkFailure() throws IOException {
+    Exception failure = frameLoop.failure();
+    if (failure != null) {
+      throw new IOException("Priority lanes stopped after failing to send a frame", failure);
+    }
+  }
+
+  private void validateLane(int lane) {
+    if (lane < 0 || lane >= lanes.length) {
+      throw new IllegalArgumentException(
+          "Invalid value " + lane
+              + " for lane; "
+              + "must be between 0 and " + (lanes.length - 1) + ", inclusive"
+      );
+    }
+  }
+
+}
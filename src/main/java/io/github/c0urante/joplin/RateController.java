@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjusts how often and how redundantly frames are sent based on how well
+ * the network is keeping up.
+ * <p>
+ * UDP sends normally complete almost instantly; a send that blocks for a
+ * while means that the socket's buffer is full, and a send that fails
+ * (for example, with an ICMP port unreachable error) means that datagrams are
+ * not reaching the bridge. Either is treated as a sign of congestion, and
+ * cuts the frame rate by a quarter and sends one fewer copy of each frame.
+ * After a run of healthy sends, redundancy is restored first, and then the
+ * frame rate is raised a little at a time.
+ * <p>
+ * Not thread safe; only accessed from the sending thread.
+ */
+class RateController {
+
+  static final long CONGESTED_SEND_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+  static final int HEALTHY_FRAMES_TO_RECOVER = 25;
+  static final long MIN_NANOS_BETWEEN_DECREASES = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final double DECREASE_FACTOR = 0.75;
+  private static final double INCREASE_STEP = 1;
+  private static final double LATENCY_SMOOTHING = 0.1;
+
+  private final double minFrameRate;
+  private final double maxFrameRate;
+  private final int maxTries;
+  private final StreamMetrics metrics;
+
+  private double frameRate;
+  private long intervalNanos;
+  private int tries;
+  private long nextFrameNanos;
+  private int healthyFrames = 0;
+  private long lastDecreaseNanos;
+  private double smoothedLatencyNanos = 0;
+
+  RateController(double minFrameRate, double maxFrameRate, int maxTries, StreamMetrics metrics) {
+    if (!(minFrameRate > 0) || !(maxFrameRate >= minFrameRate) || Double.isInfinite(maxFrameRate)) {
+      throw new IllegalArgumentException(
+          "Invalid frame rate range [" + minFrameRate + ", " + maxFrameRate + "]; "
+              + "both bounds must be finite and positive, and the minimum may not exceed the maximum"
+      );
+    }
+
+    this.minFrameRate = minFrameRate;
+    this.maxFrameRate = maxFrameRate;
+    this.maxTries = maxTries;
+    this.metrics = metrics;
+
+    long now = System.nanoTime();
+    this.nextFrameNanos = now;
+    this.lastDecreaseNanos = now - MIN_NANOS_BETWEEN_DECREASES;
+    setFrameRate(maxFrameRate);
+    setTries(maxTries);
+  }
+
+  /**
+   * @return whether a frame may be sent now; if not, it should be held back
+   * until {@link #nanosUntilNextFrame(long) the next slot}, or skipped
+   */
+  boolean admit(long nowNanos) {
+    if (nowNanos - nextFrameNanos < 0) {
+      return false;
+    }
+    // Allow a late frame to be followed by an early one, so that jitter in
+    // the caller's timing doesn't cause frames to be skipped
+    nextFrameNanos = Math.max(nextFrameNanos, nowNanos - intervalNanos) + intervalNanos;
+    return true;
+  }
+
+  /**
+   * Record a frame that is sent right away, whether or not the frame rate
+   * allows it, so that the next slot is measured from it.
+   */
+  void admitNow(long nowNanos) {
+    nextFrameNanos = Math.max(nextFrameNanos, nowNanos + intervalNanos);
+  }
+
+  /**
+   * @return how long until the next frame may be sent; zero or negative if
+   * one may be sent now
+   */
+  long nanosUntilNextFrame(long nowNanos) {
+    return nextFrameNanos - nowNanos;
+  }
+
+  int tries() {
+    return tries;
+  }
+
+  /**
+   * @param latencyNanos how long it took to send every copy of the frame
+   */
+  void onSendSucceeded(long nowNanos, long latencyNanos) {
+    long perTry = latencyNanos / tries;
+    smoothedLatencyNanos += (perTry - smoothedLatencyNanos) * LATENCY_SMOOTHING;
+    metrics.recordSendLatency((long) smoothedLatencyNanos);
+
+    if (perTry >= CONGESTED_SEND_NANOS) {
+      onCongestion(nowNanos);
+      return;
+    }
+
+    if (++healthyFrames < HEALTHY_FRAMES_TO_RECOVER) {
+      return;
+    }
+    healthyFrames = 0;
+    if (tries < maxTries) {
+      setTries(tries + 1);
+    } else if (frameRate < maxFrameRate) {
+      setFrameRate(Math.min(frameRate + INCREASE_STEP, maxFrameRate));
+    }
+  }
+
+  void onSendFailed(long nowNanos) {
+    onCongestion(nowNanos);
+  }
+
+  private void onCongestion(long nowNanos) {
+    healthyFrames = 0;
+    // A single stall tends to affect several sends in a row; only react once
+    if (nowNanos - lastDecreaseNanos < MIN_NANOS_BETWEEN_DECREASES) {
+      return;
+    }
+    lastDecreaseNanos = nowNanos;
+    metrics.recordCongestion();
+
+    setTries(Math.max(tries - 1, 1));
+    setFrameRate(Math.max(frameRate * DECREASE_FACTOR, minFrameRate));
+  }
+
+  private void setFrameRate(double frameRate) {
+    this.frameRate = frameRate;
+    this.intervalNanos = Math.round(TimeUnit.SECONDS.toNanos(1) / frameRate);
+    metrics.recordFrameRate(frameRate);
+  }
+
+  private void setTries(int tries) {
+    this.tries = tries;
+    metrics.recordTries(tries);
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import java.io.IOException;
+
+/**
+ * A failure to send a frame to the bridge that was not thrown to the caller.
+ * <p>
+ * Instances are reused for later failures, so one is only valid until the
+ * listener or consumer it was handed to returns; copy anything that is
+ * needed after that.
+ *
+ * @see SendFailurePolicy
+ */
+public class SendFailure {
+
+  private long timestampMillis;
+  private IOException cause;
+  private long consecutiveFailures;
+
+  SendFailure() {
+  }
+
+  void set(long timestampMillis, IOException cause, long consecutiveFailures) {
+    this.timestampMillis = timestampMillis;
+    this.cause = cause;
+    this.consecutiveFailures = consecutiveFailures;
+  }
+
+  /**
+   * @return when the failure occurred, in milliseconds since the epoch
+   */
+  public long timestampMillis() {
+    return timestampMillis;
+  }
+
+  public IOException cause() {
+    return cause;
+  }
+
+  /**
+   * @return how many sends in a row have failed, including this one
+   */
+  public long consecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+}
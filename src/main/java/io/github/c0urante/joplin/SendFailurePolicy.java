@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+/**
+ * What a {@link HueEntertainmentClient} does when a frame can't be sent to the
+ * bridge.
+ * <p>
+ * With every policy other than {@link #THROW}, failures are recorded in the
+ * client's {@link StreamMetrics} and published as {@link SendFailure} events
+ * instead of being thrown to the caller.
+ *
+ * @see HueEntertainmentClient#drainSendFailures(java.util.function.Consumer)
+ */
+public enum SendFailurePolicy {
+
+  /**
+   * Throw the failure from the sending method. This is the default.
+   */
+  THROW,
+
+  /**
+   * Drop the frame and keep going as if nothing happened.
+   */
+  DROP,
+
+  /**
+   * Drop the frame and restart the stream, via the REST API and a new DTLS
+   * handshake, before sending another one. Frames are dropped while waiting
+   * to reconnect, for the same back-off period as with {@link #BACK_OFF}, and
+   * a failed reconnect counts as another consecutive failure.
+   */
+  RECONNECT,
+
+  /**
+   * Drop the frame, and also drop every frame sent during an exponentially
+   * increasing back-off period after each consecutive failure.
+   */
+  BACK_OFF
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import io.github.c0urante.joplin.internal.DtlsClient;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Switches streaming between several entertainment areas on the same bridge
+ * with as short a dark gap as possible.
+ * <p>
+ * A client is built up front for every area, and once {@link #prepare()
+ * prepared}, each one that isn't streaming keeps a warm connection to the
+ * bridge's REST API and a DTLS connection that is ready for its handshake.
+ * The bridge only accepts a handshake for an area once streaming to it has
+ * been started, and only streams to one area at a time, so
+ * {@link #switchTo(String, Light...) switching} still has to stop the old
+ * area, start the new one, and perform the handshake; but nothing else is
+ * left on that path, and the first frame for the new area is sent as soon as
+ * the handshake completes. If the switch fails, no area is left streaming.
+ */
+public class SessionManager implements AutoCloseable {
+
+  private final Map<String, Session> sessions;
+  private final AtomicLong switches = new AtomicLong();
+
+  // Guarded by this
+  private Session active = null;
+
+  private volatile long lastSwitchGapNanos = 0;
+  private volatile long maxSwitchGapNanos = 0;
+
+  private SessionManager(HueEntertainmentClient.Builder clients, List<String> areas) {
+    Objects.requireNonNull(clients, "Client builder must be set");
+    if (areas.isEmpty()) {
+      throw new IllegalArgumentException("At least one entertainment area must be added");
+    }
+
+    Map<String, Session> sessions = new LinkedHashMap<>();
+    for (String area : areas) {
+      Objects.requireNonNull(area, "Entertainment area ID may not be null");
+      sessions.put(area, new Session(clients.copy().entertainmentArea(area).build()));
+    }
+    this.sessions = Collections.unmodifiableMap(sessions);
+  }
+
+  /**
+   * @param clients a builder for the clients that will stream to each area;
+   *                everything except the entertainment area should already be
+   *                configured; it is not modified
+   * @return a builder for a session manager
+   */
+  public static Builder builder(HueEntertainmentClient.Builder clients) {
+    return new Builder(clients);
+  }
+
+  /**
+   * Builder for {@link SessionManager}.
+   */
+  public static class Builder {
+
+    private final HueEntertainmentClient.Builder clients;
+    private final List<String> areas = new ArrayList<>();
+
+    private Builder(HueEntertainmentClient.Builder clients) {
+      this.clients = clients;
+    }
+
+    public Builder area(String entertainmentArea) {
+      this.areas.add(entertainmentArea);
+      return this;
+    }
+
+    public Builder areas(String... entertainmentAreas) {
+      Collections.addAll(this.areas, entertainmentAreas);
+      return this;
+    }
+
+    public SessionManager build() {
+      return new SessionManager(clients, areas);
+    }
+
+  }
+
+  /**
+   * Warm up every area that isn't streaming: open a connection to the bridge's
+   * REST API, confirm that the area exists, and prepare a DTLS connection for
+   * its handshake.
+   *
+   * @throws IOException if an error occurs while contacting the bridge
+   * @throws InterruptedException if the calling thread is interrupted while
+   * contacting the bridge's REST API
+   */
+  public synchronized void prepare() throws IOException, InterruptedException {
+    for (Session session : sessions.values()) {
+      if (session == active) {
+        continue;
+      }
+      session.client.warmUp();
+      if (session.prepared == null) {
+        session.prepared = session.client.prepareDtls();
+      }
+    }
+  }
+
+  /**
+   * Stop streaming to the current area, if any, and start streaming to
+   * another one.
+   *
+   * @param entertainmentArea the area to switch to
+   * @param firstFrame the lights to send to the new area as soon as it is
+   *                   streaming; may be empty
+   * @return the client for the new area, which is now streaming
+   * @throws IOException if an error occurs while contacting the bridge
+   * @throws InterruptedException if the calling thread is interrupted while
+   * contacting the bridge's REST API
+   */
+  public synchronized HueEntertainmentClient switchTo(
+      String entertainmentArea,
+      Light... firstFrame
+  ) throws IOException, InterruptedException {
+    Session next = session(entertainmentArea);
+    if (next == active) {
+      return next.client;
+    }
+
+    long switchStart = System.nanoTime();
+    Session previous = active;
+    try {
+      if (previous != null) {
+        try {
+          CompletableFuture<HttpResponse<String>> stop = previous.client.beginStopStream();
+          // Get the new area ready while the bridge is busy with the old one
+          warmUpQuietly(next);
+          previous.client.finishStopStream(stop);
+        } finally {
+          active = null;
+        }
+      }
+
+      DtlsClient.Prepared prepared = next.prepared;
+      next.prepared = null;
+      try {
+        next.client.initializeStream(prepared);
+      } catch (IOException | InterruptedException | RuntimeException e) {
+        stopQuietly(next.client, e);
+        throw e;
+      }
+      active = next;
+      if (firstFrame.length > 0) {
+        next.client.sendLights(firstFrame);
+      }
+      recordSwitchGap(System.nanoTime() - switchStart);
+    } finally {
+      if (previous != null) {
+        try {
+          previous.prepared = previous.client.prepareDtls();
+        } catch (IOException e) {
+          // Not fatal; a connection will be prepared during the next switch instead
+        }
+      }
+    }
+
+    return next.client;
+  }
+
+  /**
+   * @return the client for the area that is currently streaming, or null if
+   * there is none
+   */
+  public synchronized HueEntertainmentClient active() {
+    return active != null ? active.client : null;
+  }
+
+  /**
+   * @param entertainmentArea one of the areas the manager was built with
+   * @return the client for that area
+   */
+  public HueEntertainmentClient client(String entertainmentArea) {
+    return session(entertainmentArea).client;
+  }
+
+  /**
+   * @return the number of completed switches between areas
+   */
+  public long switches() {
+    return switches.get();
+  }
+
+  /**
+   * @return how long, in nanoseconds, the most recent switch took from
+   * stopping the old area until the first frame was sent to the new one (or
+   * until the handshake completed, if there was no first frame); 0 if there
+   * have been no switches
+   */
+  public long lastSwitchGapNanos() {
+    return lastSwitchGapNanos;
+  }
+
+  /**
+   * @return the longest switch-over gap seen, in nanoseconds
+   */
+  public long maxSwitchGapNanos() {
+    return maxSwitchGapNanos;
+  }
+
+  /**
+   * Stop streaming to the current area, if any, and close every client.
+   */
+  @Override
+  public synchronized void close() throws IOException, InterruptedException {
+    try {
+      if (active != null) {
+        active.client.stopStream();
+        active = null;
+      }
+    } finally {
+      for (Session session : sessions.values()) {
+        if (session.prepared != null) {
+          session.prepared.close();
+          session.prepared = null;
+        }
+        session.client.close();
+      }
+    }
+  }
+
+  private Session session(String entertainmentArea) {
+    Session result = sessions.get(entertainmentArea);
+    if (result == null) {
+      throw new IllegalArgumentException(
+          "Invalid value " + entertainmentArea
+              + " for entertainment area; "
+              + "must be one of " + sessions.keySet()
+      );
+    }
+    return result;
+  }
+
+  // Anything that fails here is tried again, and reported, while starting the stream
+  private static void warmUpQuietly(Session session) throws InterruptedException {
+    try {
+      session.client.warmUp();
+      if (session.prepared == null) {
+        session.prepared = session.client.prepareDtls();
+      }
+    } catch (IOException e) {
+      // Not fatal
+    }
+  }
+
+  // The bridge may have started streaming to the area before the failure
+  private static void stopQuietly(HueEntertainmentClient client, Exception failure) {
+    try {
+      client.stopStream();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure.addSuppressed(e);
+    } catch (IOException | RuntimeException e) {
+      failure.addSuppressed(e);
+    }
+  }
+
+  // Only called while holding the lock on this, so there are no competing writes
+  private void recordSwitchGap(long gapNanos) {
+    switches.incrementAndGet();
+    lastSwitchGapNanos = gapNanos;
+    if (gapNanos > maxSwitchGapNanos) {
+      maxSwitchGapNanos = gapNanos;
+    }
+  }
+
+  private static class Session {
+    final HueEntertainmentClient client;
+    // Guarded by the manager
+    DtlsClient.Prepared prepared = null;
+
+    Session(HueEntertainmentClient client) {
+      this.client = client;
+    }
+  }
+
+}
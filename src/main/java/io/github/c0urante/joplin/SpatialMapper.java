@@ -0,0 +1,323 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import io.github.c0urante.joplin.internal.ColorMath;
+import io.github.c0urante.joplin.internal.Serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Maps effects defined over physical space onto the channels of an
+ * entertainment area.
+ * <p>
+ * Each channel's position is reduced once, up front, to a single coordinate
+ * between 0 and 1: either how far along a direction it lies
+ * ({@link #linear(EntertainmentConfiguration, double, double, double)}) or how
+ * far it is from a point ({@link #radial(EntertainmentConfiguration, Position)}).
+ * Rendering a frame then only has to evaluate a {@link Field} for each channel,
+ * given that coordinate and the channel's position, and blend between two
+ * colors. Frames can be
+ * {@link #send(HueEntertainmentClient, Field, HueColor, HueColor, double) sent}
+ * straight from a reused buffer, without allocating anything per channel.
+ */
+public class SpatialMapper {
+
+  /**
+   * A scalar field over physical space that decides how much of the second
+   * color each channel gets.
+   */
+  public interface Field {
+
+    /**
+     * @param coordinate the channel's coordinate under the mapper, between 0 and 1
+     * @param position the channel's position in the entertainment area
+     * @param timeSeconds the time at which the field is being sampled
+     * @return the weight to give the second color, between 0 and 1
+     */
+    double weight(double coordinate, Position position, double timeSeconds);
+
+    /**
+     * Prepare to sample this field at the same channels frame after frame.
+     * Fields can override this to work out, once, whatever about each channel
+     * doesn't change over time.
+     * @param coordinates each channel's coordinate under the mapper
+     * @param positions each channel's position in the entertainment area
+     */
+    default Sampler sampler(double[] coordinates, Position[] positions) {
+      return (index, timeSeconds) -> weight(coordinates[index], positions[index], timeSeconds);
+    }
+
+    /**
+     * A static blend from the first color (at coordinate 0) to the second
+     * (at coordinate 1).
+     */
+    static Field gradient() {
+      return (coordinate, position, timeSeconds) -> coordinate;
+    }
+
+    /**
+     * A sine wave that travels towards increasing coordinates.
+     * @param wavelength the distance between peaks, as a fraction of the area
+     * @param frequency how many peaks pass each point per second
+     */
+    static Field wave(double wavelength, double frequency) {
+      return new Wave(2 * Math.PI / wavelength, 2 * Math.PI * frequency);
+    }
+
+    /**
+     * A band of the second color that starts at coordinate 0 and moves
+     * outwards. Intended for use with {@link #radial(EntertainmentConfiguration, Position)}.
+     * @param speed how far the band travels per second, as a fraction of the area
+     * @param width the distance over which the band fades out on either side
+     */
+    static Field burst(double speed, double width) {
+      return (coordinate, position, timeSeconds) ->
+          Math.max(0, 1 - Math.abs(coordinate - speed * timeSeconds) / width);
+    }
+
+  }
+
+  /**
+   * A {@link Field} that has been prepared for a mapper's channels.
+   */
+  public interface Sampler {
+
+    /**
+     * @param index the index of the channel, in the order of the entertainment
+     *              area's channels
+     * @param timeSeconds the time at which the field is being sampled
+     * @return the weight to give the second color, between 0 and 1
+     */
+    double weight(int index, double timeSeconds);
+
+  }
+
+  private static class Wave implements Field {
+
+    private final double spatial;
+    private final double temporal;
+
+    Wave(double spatial, double temporal) {
+      this.spatial = spatial;
+      this.temporal = temporal;
+    }
+
+    @Override
+    public double weight(double coordinate, Position position, double timeSeconds) {
+      return 0.5 + 0.5 * Math.cos(coordinate * spatial - timeSeconds * temporal);
+    }
+
+    @Override
+    public Sampler sampler(double[] coordinates, Position[] positions) {
+      // cos(a - b) = cos(a)cos(b) + sin(a)sin(b), where only b changes between frames
+      double[] cosPhase = new double[coordinates.length];
+      double[] sinPhase = new double[coordinates.length];
+      for (int i = 0; i < coordinates.length; i++) {
+        cosPhase[i] = Math.cos(coordinates[i] * spatial);
+        sinPhase[i] = Math.sin(coordinates[i] * spatial);
+      }
+      return new Sampler() {
+        private double sampledSeconds = Double.NaN;
+        private double cosTime;
+        private double sinTime;
+
+        @Override
+        public double weight(int index, double timeSeconds) {
+          if (timeSeconds != sampledSeconds) {
+            sampledSeconds = timeSeconds;
+            cosTime = Math.cos(timeSeconds * temporal);
+            sinTime = Math.sin(timeSeconds * temporal);
+          }
+          return 0.5 + 0.5 * (cosPhase[index] * cosTime + sinPhase[index] * sinTime);
+        }
+      };
+    }
+
+  }
+
+  private final int[] channels;
+  private final double[] coordinates;
+  private final Position[] positions;
+
+  // Scratch space for rendering; guarded by this
+  private final int[] endpoints = new int[6];
+  private final int[] mixed = new int[3];
+  private final ByteBuffer scratch = ByteBuffer.allocate(6);
+  private final ByteBuffer encoded;
+  // The sampler for the most recently rendered field; guarded by this
+  private Field sampledField = null;
+  private Sampler sampler = null;
+
+  private SpatialMapper(int[] channels, double[] coordinates, Position[] positions) {
+    this.channels = channels;
+    this.coordinates = coordinates;
+    this.positions = positions;
+    this.encoded = ByteBuffer.allocate(channels.length * Serialization.LIGHT_SIZE);
+  }
+
+  /**
+   * Create a mapper whose coordinates run along a direction, with 0 and 1
+   * assigned to the channels furthest back and furthest forward along it.
+   * For example, a direction of (1, 0, 0) maps the leftmost channel to 0 and
+   * the rightmost to 1.
+   */
+  public static SpatialMapper linear(EntertainmentConfiguration configuration, double x, double y, double z) {
+    double length = Math.sqrt(x * x + y * y + z * z);
+    if (!(length > 0)) {
+      throw new IllegalArgumentException("Direction must have a non-zero length");
+    }
+
+    List<EntertainmentChannel> channels = configuration.channels();
+    double[] projections = new double[channels.size()];
+    for (int i = 0; i < projections.length; i++) {
+      Position position = channels.get(i).position();
+      projections[i] = (position.x() * x + position.y() * y + position.z() * z) / length;
+    }
+    return create(channels, projections);
+  }
+
+  /**
+   * Create a mapper whose coordinates are the distance from a point, with 0
+   * assigned to the point itself and 1 to the furthest channel from it.
+   */
+  public static SpatialMapper radial(EntertainmentConfiguration configuration, Position center) {
+    Objects.requireNonNull(center, "Center must be set");
+
+    List<EntertainmentChannel> channels = configuration.channels();
+    double[] distances = new double[channels.size()];
+    for (int i = 0; i < distances.length; i++) {
+      distances[i] = channels.get(i).position().distanceTo(center);
+    }
+    return create(channels, distances, 0);
+  }
+
+  /**
+   * @return the number of channels this mapper renders
+   */
+  public int size() {
+    return channels.length;
+  }
+
+  /**
+   * Sample a field at every channel and blend between two colors accordingly.
+   * @return one light per channel in the entertainment area
+   */
+  public synchronized Light[] render(Field field, HueColor from, HueColor to, double timeSeconds) {
+    decodeEndpoints(from, to);
+    Sampler sampler = sampler(field);
+    Light[] result = new Light[channels.length];
+    for (int i = 0; i < channels.length; i++) {
+      mix(sampler, i, timeSeconds);
+      result[i] = new Light(channels[i], new Rgb(mixed[0], mixed[1], mixed[2]));
+    }
+    return result;
+  }
+
+  /**
+   * Sample a field at every channel, blend between two colors accordingly,
+   * and encode the result in the layout expected by
+   * {@link HueEntertainmentClient#sendEncodedLights(ByteBuffer)}.
+   * @return the encoded lights; the buffer is reused by the next call to this
+   * method or to {@link #send(HueEntertainmentClient, Field, HueColor, HueColor, double)}
+   */
+  public synchronized ByteBuffer renderEncoded(Field field, HueColor from, HueColor to, double timeSeconds) {
+    decodeEndpoints(from, to);
+    Sampler sampler = sampler(field);
+    encoded.clear();
+    for (int i = 0; i < channels.length; i++) {
+      mix(sampler, i, timeSeconds);
+      encoded.put((byte) channels[i]);
+      encoded.putShort((short) mixed[0]);
+      encoded.putShort((short) mixed[1]);
+      encoded.putShort((short) mixed[2]);
+    }
+    encoded.flip();
+    return encoded;
+  }
+
+  /**
+   * Render a frame and send it to a client.
+   * @throws IOException if an error occurs while contacting the bridge's DTLS API
+   */
+  public synchronized void send(
+      HueEntertainmentClient client,
+      Field field,
+      HueColor from,
+      HueColor to,
+      double timeSeconds
+  ) throws IOException {
+    client.sendEncodedLights(renderEncoded(field, from, to, timeSeconds));
+  }
+
+  private void decodeEndpoints(HueColor from, HueColor to) {
+    ColorMath.decodeRgb(from, scratch, endpoints, 0);
+    ColorMath.decodeRgb(to, scratch, endpoints, 3);
+  }
+
+  // Effects usually render the same field frame after frame, so its sampler is kept around
+  private Sampler sampler(Field field) {
+    Objects.requireNonNull(field, "Field may not be null");
+    if (field != sampledField) {
+      // Copied, so that fields can't change the mapper's layout
+      sampler = field.sampler(coordinates.clone(), positions.clone());
+      sampledField = field;
+    }
+    return sampler;
+  }
+
+  // Blends the decoded endpoints for the channel at the given index into mixed
+  private void mix(Sampler sampler, int index, double timeSeconds) {
+    double weight = sampler.weight(index, timeSeconds);
+    weight = Math.max(0, Math.min(1, weight));
+    for (int component = 0; component < 3; component++) {
+      int from = endpoints[component];
+      int delta = endpoints[component + 3] - from;
+      mixed[component] = (int) Math.round(from + delta * weight);
+    }
+  }
+
+  private static SpatialMapper create(List<EntertainmentChannel> channels, double[] values) {
+    double min = Double.POSITIVE_INFINITY;
+    for (double value : values) {
+      min = Math.min(min, value);
+    }
+    return create(channels, values, min);
+  }
+
+  // Rescales values so that origin maps to 0 and the largest value to 1
+  private static SpatialMapper create(List<EntertainmentChannel> channels, double[] values, double origin) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (double value : values) {
+      max = Math.max(max, value);
+    }
+    double range = max - origin;
+
+    int[] channelIds = new int[values.length];
+    double[] coordinates = new double[values.length];
+    Position[] positions = new Position[values.length];
+    for (int i = 0; i < values.length; i++) {
+      channelIds[i] = channels.get(i).channelId();
+      coordinates[i] = range > 0 ? (values[i] - origin) / range : 0;
+      positions[i] = channels.get(i).position();
+    }
+    return new SpatialMapper(channelIds, coordinates, positions);
+  }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters describing the frames a {@link HueEntertainmentClient} has
+ * sent. All values are cumulative since the client was created.
+ *
+ * @see HueEntertainmentClient#metrics()
+ */
+public class StreamMetrics {
+
+  private final AtomicLong framesSent = new AtomicLong();
+  private final AtomicLong framesDropped = new AtomicLong();
+  private final AtomicLong sendFailures = new AtomicLong();
+  private final AtomicLong reconnects = new AtomicLong();
+  private final AtomicLong framesSkipped = new AtomicLong();
+  private final AtomicLong congestionEvents = new AtomicLong();
+  private volatile double frameRateLimit = 0;
+  private volatile int tries = 0;
+  private volatile long sendLatencyNanos = 0;
+  private volatile long timeToFirstFrameNanos = 0;
+
+  StreamMetrics() {
+  }
+
+  /**
+   * @return the number of frames successfully handed off to the network
+   */
+  public long framesSent() {
+    return framesSent.get();
+  }
+
+  /**
+   * @return the number of frames that were not sent, either because they
+   * failed or because they were skipped while backing off
+   */
+  public long framesDropped() {
+    return framesDropped.get();
+  }
+
+  /**
+   * @return the number of frames that failed to send
+   */
+  public long sendFailures() {
+    return sendFailures.get();
+  }
+
+  /**
+   * @return the number of times the DTLS connection has been re-established
+   * after a failure
+   */
+  public long reconnects() {
+    return reconnects.get();
+  }
+
+  /**
+   * @return the number of frames skipped by adaptive rate control because they
+   * arrived sooner than the current frame rate allows, and a newer frame
+   * arrived before they could be sent
+   */
+  public long framesSkipped() {
+    return framesSkipped.get();
+  }
+
+  /**
+   * @return the number of times adaptive rate control has detected congestion
+   * and backed off
+   */
+  public long congestionEvents() {
+    return congestionEvents.get();
+  }
+
+  /**
+   * @return the highest frame rate, in frames per second, that adaptive rate
+   * control currently allows, or 0 if it is disabled
+   */
+  public double frameRateLimit() {
+    return frameRateLimit;
+  }
+
+  /**
+   * @return how many copies of each frame are currently being sent
+   */
+  public int tries() {
+    return tries;
+  }
+
+  /**
+   * @return a moving average of how long it takes to send one copy of a
+   * frame, in nanoseconds, or 0 if adaptive rate control is disabled
+   */
+  public long sendLatencyNanos() {
+    return sendLatencyNanos;
+  }
+
+  /**
+   * @return how long it took, in nanoseconds, from the most recent call to
+   * {@link HueEntertainmentClient#initializeStream()} (or from the first frame,
+   * with lazy start) until a frame was successfully sent; 0 if no frame has
+   * been sent since then
+   */
+  public long timeToFirstFrameNanos() {
+    return timeToFirstFrameNanos;
+  }
+
+  void recordFrameSent() {
+    framesSent.incrementAndGet();
+  }
+
+  void recordFrameDropped() {
+    framesDropped.incrementAndGet();
+  }
+
+  void recordSendFailure() {
+    sendFailures.incrementAndGet();
+    framesDropped.incrementAndGet();
+  }
+
+  void recordReconnect() {
+    reconnects.incrementAndGet();
+  }
+
+  void recordFrameSkipped() {
+    framesSkipped.incrementAndGet();
+  }
+
+  void recordCongestion() {
+    congestionEvents.incrementAndGet();
+  }
+
+  void recordFrameRate(double frameRateLimit) {
+    this.frameRateLimit = frameRateLimit;
+  }
+
+  void recordTries(int tries) {
+    this.tries = tries;
+  }
+
+  void recordTimeToFirstFrame(long timeToFirstFrameNanos) {
+    this.timeToFirstFrameNanos = timeToFirstFrameNanos;
+  }
+
+  void recordSendLatency(long sendLatencyNanos) {
+    this.sendLatencyNanos = sendLatencyNanos;
+  }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.gateway;
+
+import io.github.c0urante.joplin.HueEntertainmentClient;
+import io.github.c0urante.joplin.internal.FrameLoop;
+import io.github.c0urante.joplin.internal.Serialization;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Listens for Art-Net and sACN (E1.31) DMX data and streams it to a
+ * {@link HueEntertainmentClient}.
+ * <p>
+ * Packets are received into a single reused buffer and decoded in place.
+ * Patched slots are copied into the gateway's channel state, and the latest
+ * state is forwarded to the bridge once per frame, no matter how many packets
+ * arrive in between. Nothing is sent until the first packet for a patched
+ * universe arrives.
+ * <p>
+ * Closing the gateway stops it from listening and sending, but does not close
+ * the underlying client.
+ */
+public class DmxGateway implements AutoCloseable {
+
+  public static final int ART_NET_PORT = 6454;
+  public static final int SACN_PORT = 5568;
+
+  private static final int MAX_PACKET_SIZE = 1144;
+  private static final long RECEIVER_JOIN_MILLIS = 1_000;
+
+  private final HueEntertainmentClient client;
+  private final DmxPatch patch;
+  private final SocketAddress bindAddress;
+  private final NetworkInterface sacnMulticastInterface;
+  private final FrameLoop frameLoop;
+  private final Thread receiver;
+  private final DmxPacket packet = new DmxPacket();
+  private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+  private final ByteBuffer encoded;
+  private final AtomicLong packetsReceived = new AtomicLong();
+  private final AtomicLong packetsIgnored = new AtomicLong();
+
+  // Guarded by this
+  private final int[] values;
+  private boolean received = false;
+
+  private DatagramChannel channel;
+  private volatile Exception receiveFailure = null;
+
+  private DmxGateway(
+      HueEntertainmentClient client,
+      DmxPatch patch,
+      SocketAddress bindAddress,
+      NetworkInterface sacnMulticastInterface,
+      double frameRate
+  ) {
+    Objects.requireNonNull(client, "Client must be set");
+    Objects.requireNonNull(patch, "Patch must be set");
+    Objects.requireNonNull(bindAddress, "Bind address must be set");
+
+    this.client = client;
+    this.patch = patch;
+    this.bindAddress = bindAddress;
+    this.sacnMulticastInterface = sacnMulticastInterface;
+    this.values = new int[patch.size() * 3];
+    this.encoded = ByteBuffer.allocate(patch.size() * Serialization.LIGHT_SIZE);
+    this.frameLoop = new FrameLoop("joplin-dmx-sender", frameRate, this::sendFrame);
+    this.receiver = new Thread(this::receive, "joplin-dmx-receiver");
+    this.receiver.setDaemon(true);
+  }
+
+  public static Builder builder(HueEntertainmentClient client) {
+    return new Builder(client);
+  }
+
+  /**
+   * Builder for {@link DmxGateway}.
+   */
+  public static class Builder {
+
+    public static final double DEFAULT_FRAME_RATE = 50;
+
+    private final HueEntertainmentClient client;
+    private DmxPatch patch = null;
+    private SocketAddress bindAddress = new InetSocketAddress(ART_NET_PORT);
+    private NetworkInterface sacnMulticastInterface = null;
+    private double frameRate = DEFAULT_FRAME_RATE;
+
+    private Builder(HueEntertainmentClient client) {
+      this.client = client;
+    }
+
+    public Builder patch(DmxPatch patch) {
+      this.patch = patch;
+      return this;
+    }
+
+    /**
+     * The local address to listen on. Both Art-Net and sACN packets are
+     * accepted on any port; by default, the gateway listens on all interfaces
+     * on the Art-Net port ({@value #ART_NET_PORT}). Use {@value #SACN_PORT}
+     * for sACN.
+     */
+    public Builder bindAddress(SocketAddress bindAddress) {
+      this.bindAddress = bindAddress;
+      return this;
+    }
+
+    /**
+     * Join the sACN multicast group for every patched universe on the given
+     * interface. Without this, only unicast sACN is received.
+     */
+    public Builder sacnMulticast(NetworkInterface networkInterface) {
+      this.sacnMulticastInterface = networkInterface;
+      return this;
+    }
+
+    public Builder frameRate(double frameRate) {
+      this.frameRate = frameRate;
+      return this;
+    }
+
+    public DmxGateway build() {
+      return new DmxGateway(client, patch, bindAddress, sacnMulticastInterface, frameRate);
+    }
+
+  }
+
+  /**
+   * Start listening for DMX data and forwarding it to the client. The
+   * client's stream must already be initialized, unless it was built with
+   * lazy start enabled.
+   * @throws IOException if the gateway cannot listen on its bind address
+   */
+  public void start() throws IOException {
+    channel = DatagramChannel.open(StandardProtocolFamily.INET);
+    try {
+      channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      channel.bind(bindAddress);
+      if (sacnMulticastInterface != null) {
+        joinSacnGroups();
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+
+    receiver.start();
+    frameLoop.start();
+  }
+
+  /**
+   * @return the address the gateway is listening on, or null if it has not
+   * been started
+   */
+  public SocketAddress localAddress() throws IOException {
+    return channel != null ? channel.getLocalAddress() : null;
+  }
+
+  /**
+   * @return the number of packets received that contained DMX data
+   */
+  public long packetsReceived() {
+    return packetsReceived.get();
+  }
+
+  /**
+   * @return the number of packets received that were not Art-Net or sACN DMX data
+   */
+  public long packetsIgnored() {
+    return packetsIgnored.get();
+  }
+
+  /**
+   * @return the error that stopped the gateway, if any
+   */
+  public Exception failure() {
+    Exception result = receiveFailure;
+    return result != null ? result : frameLoop.failure();
+  }
+
+  @Override
+  public void close() throws IOException, InterruptedException {
+    try {
+      if (channel != null) {
+        // Also wakes the receiver up, if it's waiting for a packet
+        channel.close();
+        if (receiver.isAlive() && receiver != Thread.currentThread()) {
+          receiver.join(RECEIVER_JOIN_MILLIS);
+        }
+      }
+    } finally {
+      frameLoop.close();
+    }
+  }
+
+  /**
+   * Apply the DMX data in a packet to the gateway's channel state.
+   * @return whether the packet contained DMX data
+   */
+  synchronized boolean apply(ByteBuffer buffer) {
+    if (!packet.parse(buffer)) {
+      return false;
+    }
+
+    int universe = packet.universe();
+    int dataOffset = packet.dataOffset();
+    int dataLength = packet.dataLength();
+    for (int i = 0; i < patch.size(); i++) {
+      if (patch.universe(i) != universe) {
+        continue;
+      }
+      int offset = patch.offset(i);
+      boolean sixteenBit = patch.isSixteenBit(i);
+      if (offset + (sixteenBit ? 6 : 3) > dataLength) {
+        continue;
+      }
+      int slot = dataOffset + offset;
+      for (int component = 0; component < 3; component++) {
+        int value;
+        if (sixteenBit) {
+          value = (buffer.get(slot) & 0xFF) << 8 | (buffer.get(slot + 1) & 0xFF);
+          slot += 2;
+        } else {
+          // Scale so that 255 maps to full brightness
+          value = (buffer.get(slot) & 0xFF) * 0x101;
+          slot += 1;
+        }
+        values[i * 3 + component] = value;
+      }
+      received = true;
+    }
+    return true;
+  }
+
+  /**
+   * Encode the current channel state.
+   * @return the encoded lights, or null if no DMX data has been received yet
+   */
+  synchronized ByteBuffer encodeFrame() {
+    if (!received) {
+      return null;
+    }
+
+    encoded.clear();
+    for (int i = 0; i < patch.size(); i++) {
+      encoded.put((byte) patch.channel(i));
+      for (int component = 0; component < 3; component++) {
+        encoded.putShort((short) values[i * 3 + component]);
+      }
+    }
+    encoded.flip();
+    return encoded;
+  }
+
+  private void sendFrame(long nowNanos) throws IOException {
+    ByteBuffer frame = encodeFrame();
+    if (frame != null) {
+      client.sendEncodedLights(frame);
+    }
+  }
+
+  private void receive() {
+    try {
+      while (channel.isOpen()) {
+        receiveBuffer.clear();
+        channel.receive(receiveBuffer);
+        receiveBuffer.flip();
+
+        if (apply(receiveBuffer)) {
+          packetsReceived.incrementAndGet();
+        } else {
+          packetsIgnored.incrementAndGet();
+        }
+      }
+    } catch (ClosedChannelException e) {
+      // The gateway was closed
+    } catch (IOException | RuntimeException e) {
+      receiveFailure = e;
+    }
+  }
+
+  private void joinSacnGroups() throws IOException {
+    boolean[] joined = new boolean[0x10000];
+    for (int i = 0; i < patch.size(); i++) {
+      int universe = patch.universe(i);
+      if (joined[universe]) {
+        continue;
+      }
+      joined[universe] = true;
+      InetAddress group = InetAddress.getByAddress(new byte[] {
+          (byte) 239, (byte) 255, (byte) (universe >> 8), (byte) universe
+      });
+      channel.join(group, sacnMulticastInterface);
+    }
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.gateway;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses DMX data packets in place. Nothing is copied out of the packet
+ * buffer; instead, the parser records where in it the DMX slots are.
+ *
+ * @see <a href="https://art-net.org.uk/resources/art-net-specification/">Art-Net specification</a>
+ * @see <a href="https://tsp.esta.org/tsp/documents/docs/ANSI_E1-31-2018.pdf">ANSI E1.31 (sACN)</a>
+ */
+class DmxPacket {
+
+  private static final byte[] ART_NET_ID = {'A', 'r', 't', '-', 'N', 'e', 't', 0};
+  private static final int ART_NET_OP_DMX = 0x5000;
+  private static final int ART_NET_HEADER_SIZE = 18;
+
+  private static final byte[] ACN_PACKET_ID = {'A', 'S', 'C', '-', 'E', '1', '.', '1', '7', 0, 0, 0};
+  private static final int SACN_ROOT_VECTOR_DATA = 0x00000004;
+  private static final int SACN_FRAMING_VECTOR_DATA = 0x00000002;
+  private static final int SACN_DMP_VECTOR_SET_PROPERTY = 0x02;
+  private static final int SACN_OPTION_PREVIEW = 0x80;
+  private static final int SACN_HEADER_SIZE = 126;
+
+  private int universe;
+  private int dataOffset;
+  private int dataLength;
+
+  /**
+   * Try to parse an Art-Net or sACN packet.
+   * @param packet the received packet, between the buffer's position and limit
+   * @return whether the packet contained DMX data; if so, its universe and
+   * location can be read via {@link #universe()}, {@link #dataOffset()}, and
+   * {@link #dataLength()}
+   */
+  boolean parse(ByteBuffer packet) {
+    return parseArtNet(packet) || parseSacn(packet);
+  }
+
+  int universe() {
+    return universe;
+  }
+
+  /**
+   * @return the absolute index of the first DMX slot in the packet buffer
+   */
+  int dataOffset() {
+    return dataOffset;
+  }
+
+  /**
+   * @return the number of DMX slots in the packet
+   */
+  int dataLength() {
+    return dataLength;
+  }
+
+  private boolean parseArtNet(ByteBuffer packet) {
+    int start = packet.position();
+    if (packet.remaining() < ART_NET_HEADER_SIZE || !startsWith(packet, start, ART_NET_ID)) {
+      return false;
+    }
+
+    // The op code is the only little-endian field in the packet
+    int opCode = (packet.get(start + 8) & 0xFF) | (packet.get(start + 9) & 0xFF) << 8;
+    if (opCode != ART_NET_OP_DMX) {
+      return false;
+    }
+
+    int subUni = packet.get(start + 14) & 0xFF;
+    int net = packet.get(start + 15) & 0x7F;
+    int length = (packet.get(start + 16) & 0xFF) << 8 | (packet.get(start + 17) & 0xFF);
+
+    universe = net << 8 | subUni;
+    dataOffset = start + ART_NET_HEADER_SIZE;
+    dataLength = Math.min(length, packet.remaining() - ART_NET_HEADER_SIZE);
+    return true;
+  }
+
+  private boolean parseSacn(ByteBuffer packet) {
+    int start = packet.position();
+    if (packet.remaining() < SACN_HEADER_SIZE || !startsWith(packet, start + 4, ACN_PACKET_ID)) {
+      return false;
+    }
+
+    if (packet.getInt(start + 18) != SACN_ROOT_VECTOR_DATA
+        || packet.getInt(start + 40) != SACN_FRAMING_VECTOR_DATA
+        || (packet.get(start + 117) & 0xFF) != SACN_DMP_VECTOR_SET_PROPERTY) {
+      return false;
+    }
+
+    // Preview data is meant for visualizers, not real fixtures
+    if ((packet.get(start + 112) & SACN_OPTION_PREVIEW) != 0) {
+      return false;
+    }
+
+    // Only the null start code carries dimmer data
+    if (packet.get(start + 125) != 0) {
+      return false;
+    }
+
+    // The count includes the start code
+    int propertyCount = packet.getShort(start + 123) & 0xFFFF;
+
+    universe = packet.getShort(start + 113) & 0xFFFF;
+    dataOffset = start + SACN_HEADER_SIZE;
+    dataLength = Math.max(0, Math.min(propertyCount - 1, packet.remaining() - SACN_HEADER_SIZE));
+    return true;
+  }
+
+  private static boolean startsWith(ByteBuffer packet, int offset, byte[] prefix) {
+    for (int i = 0; i < prefix.length; i++) {
+      if (packet.get(offset + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assigns DMX slots to entertainment channels. Each channel reads its red,
+ * green, and blue components from consecutive slots in a single universe,
+ * either one slot per component (8-bit) or two (16-bit, coarse then fine).
+ */
+public class DmxPatch {
+
+  public enum Resolution {
+    EIGHT_BIT(1),
+    SIXTEEN_BIT(2);
+
+    private final int slotsPerComponent;
+
+    Resolution(int slotsPerComponent) {
+      this.slotsPerComponent = slotsPerComponent;
+    }
+
+    /**
+     * @return the number of DMX slots taken up by one light
+     */
+    public int footprint() {
+      return 3 * slotsPerComponent;
+    }
+  }
+
+  private final int[] channels;
+  private final int[] universes;
+  private final int[] offsets;
+  private final boolean[] sixteenBit;
+
+  private DmxPatch(List<int[]> entries) {
+    int size = entries.size();
+    this.channels = new int[size];
+    this.universes = new int[size];
+    this.offsets = new int[size];
+    this.sixteenBit = new boolean[size];
+    for (int i = 0; i < size; i++) {
+      int[] entry = entries.get(i);
+      channels[i] = entry[0];
+      universes[i] = entry[1];
+      offsets[i] = entry[2];
+      sixteenBit[i] = entry[3] != 0;
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for {@link DmxPatch}.
+   */
+  public static class Builder {
+
+    private final List<int[]> entries = new ArrayList<>();
+    private final boolean[] patched = new boolean[256];
+
+    private Builder() {
+    }
+
+    /**
+     * Patch a single entertainment channel.
+     * @param channel the entertainment channel, between 0 and 255
+     * @param universe the Art-Net port address or sACN universe to read from
+     * @param address the first DMX slot to read from, between 1 and 512
+     */
+    public Builder channel(int channel, int universe, int address, Resolution resolution) {
+      if (channel < 0 || channel > 255)
+        throw new IllegalArgumentException(
+            "Invalid value " + channel
+                + " for channel; "
+                + "must be between 0 and 255, inclusive"
+        );
+      if (universe < 0 || universe > 0xFFFF)
+        throw new IllegalArgumentException(
+            "Invalid value " + universe
+                + " for universe; "
+                + "must be between 0 and 65535, inclusive"
+        );
+      if (address < 1 || address + resolution.footprint() - 1 > 512)
+        throw new IllegalArgumentException(
+            "Invalid value " + address
+                + " for DMX address; "
+                + "all " + resolution.footprint() + " slots must be between 1 and 512, inclusive"
+        );
+      if (patched[channel])
+        throw new IllegalArgumentException("Channel " + channel + " is already patched");
+
+      patched[channel] = true;
+      entries.add(new int[] {channel, universe, address - 1, resolution == Resolution.SIXTEEN_BIT ? 1 : 0});
+      return this;
+    }
+
+    /**
+     * Patch a run of entertainment channels to back-to-back fixtures in a
+     * single universe.
+     * @param firstChannel the first entertainment channel
+     * @param count how many channels to patch
+     * @param universe the Art-Net port address or sACN universe to read from
+     * @param address the first DMX slot of the first fixture, between 1 and 512
+     */
+    public Builder channels(int firstChannel, int count, int universe, int address, Resolution resolution) {
+      for (int i = 0; i < count; i++) {
+        channel(firstChannel + i, universe, address + i * resolution.footprint(), resolution);
+      }
+      return this;
+    }
+
+    public DmxPatch build() {
+      return new DmxPatch(entries);
+    }
+
+  }
+
+  /**
+   * @return the number of patched channels
+   */
+  public int size() {
+    return channels.length;
+  }
+
+  int channel(int index) {
+    return channels[index];
+  }
+
+  int universe(int index) {
+    return universes[index];
+  }
+
+  int offset(int index) {
+    return offsets[index];
+  }
+
+  boolean isSixteenBit(int index) {
+    return sixteenBit[index];
+  }
+
+}
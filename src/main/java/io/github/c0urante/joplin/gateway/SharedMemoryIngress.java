@@ -0,0 +1,433 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.gateway;
+
+import io.github.c0urante.joplin.HueEntertainmentClient;
+import io.github.c0urante.joplin.SendFailurePolicy;
+import io.github.c0urante.joplin.internal.Serialization;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams frames written by another process into a memory-mapped file to a
+ * {@link HueEntertainmentClient}.
+ * <p>
+ * The file holds a single-producer, single-consumer ring of fixed-size frame
+ * slots. All integers in the header and slot headers use the platform's
+ * native byte order; light data uses the same layout as
+ * {@link io.github.c0urante.joplin.Light#serializeTo(ByteBuffer)}.
+ * <pre>
+ * offset  size  field
+ *      0     4  magic, 0x4A504C4E ("JPLN")
+ *      4     4  version, 1
+ *      8     4  slot count (a power of two)
+ *     12     4  slot size, in bytes
+ *     64     8  write sequence: the number of frames published by the producer
+ *    128     8  read sequence: the number of frames consumed by this ingress
+ *    192        slots
+ *
+ * slot:
+ *      0     4  number of lights in the frame
+ *      8  7 * n lights (1-byte channel, then 16-bit big-endian red, green, and blue)
+ * </pre>
+ * To publish a frame, the producer waits until {@code write - read} is less
+ * than the slot count, fills in slot {@code write % slotCount}, and then
+ * stores {@code write + 1} to the write sequence with release semantics (or
+ * anything stronger). Handing off a frame therefore costs a memory write, with
+ * no system calls on either side.
+ * <p>
+ * If the producer gets ahead, only its newest frame is sent and the rest are
+ * counted as {@link #framesSkipped() skipped}. While no frames are
+ * available, the ingress spins briefly and then parks for a configurable
+ * interval between polls.
+ * <p>
+ * The ingress can also be run on its own, as a daemon that out-of-process
+ * producers write to; see {@link #main(String[])}.
+ */
+public class SharedMemoryIngress implements AutoCloseable {
+
+  public static final int MAGIC = 0x4A504C4E;
+  public static final int VERSION = 1;
+  public static final int WRITE_SEQUENCE_OFFSET = 64;
+  public static final int READ_SEQUENCE_OFFSET = 128;
+  public static final int SLOTS_OFFSET = 192;
+  public static final int SLOT_HEADER_SIZE = 8;
+
+  private static final int SPINS_BEFORE_PARKING = 100;
+  private static final long CLOSE_TIMEOUT_MILLIS = 1_000;
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(
+      long[].class,
+      ByteOrder.nativeOrder()
+  );
+
+  private final HueEntertainmentClient client;
+  private final Path file;
+  private final int slotCount;
+  private final int maxLights;
+  private final long idleParkNanos;
+  private final Thread consumer;
+  private final AtomicLong framesReceived = new AtomicLong();
+  private final AtomicLong framesSkipped = new AtomicLong();
+  private final AtomicLong framesRejected = new AtomicLong();
+
+  // Only accessed by the consumer thread once started
+  private MappedByteBuffer mapping;
+  private ByteBuffer view;
+  private int slotSize;
+  private long readSequence;
+  private long pendingSequence;
+  private volatile boolean running = false;
+  private volatile Exception failure = null;
+
+  private SharedMemoryIngress(
+      HueEntertainmentClient client,
+      Path file,
+      int slotCount,
+      int maxLights,
+      long idleParkNanos
+  ) {
+    Objects.requireNonNull(client, "Client must be set");
+    Objects.requireNonNull(file, "File must be set");
+    if (slotCount <= 0 || Integer.bitCount(slotCount) != 1)
+      throw new IllegalArgumentException(
+          "Invalid value " + slotCount
+              + " for slot count; "
+              + "must be a positive power of two"
+      );
+    if (maxLights <= 0 || maxLights > 256)
+      throw new IllegalArgumentException(
+          "Invalid value " + maxLights
+              + " for max lights; "
+              + "must be between 1 and 256, inclusive"
+      );
+
+    this.client = client;
+    this.file = file;
+    this.slotCount = slotCount;
+    this.maxLights = maxLights;
+    this.idleParkNanos = idleParkNanos;
+    this.consumer = new Thread(this::consume, "joplin-shm-ingress");
+    this.consumer.setDaemon(true);
+  }
+
+  public static Builder builder(HueEntertainmentClient client) {
+    return new Builder(client);
+  }
+
+  /**
+   * Builder for {@link SharedMemoryIngress}.
+   */
+  public static class Builder {
+
+    public static final int DEFAULT_SLOT_COUNT = 64;
+    public static final int DEFAULT_MAX_LIGHTS = 20;
+    public static final long DEFAULT_IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final HueEntertainmentClient client;
+    private Path file = null;
+    private int slotCount = DEFAULT_SLOT_COUNT;
+    private int maxLights = DEFAULT_MAX_LIGHTS;
+    private long idleParkNanos = DEFAULT_IDLE_PARK_NANOS;
+
+    private Builder(HueEntertainmentClient client) {
+      this.client = client;
+    }
+
+    /**
+     * The file to map. If it doesn't exist or doesn't contain a ring with the
+     * configured dimensions, it is (re)initialized when the ingress starts.
+     */
+    public Builder file(Path file) {
+      this.file = file;
+      return this;
+    }
+
+    public Builder slotCount(int slotCount) {
+      this.slotCount = slotCount;
+      return this;
+    }
+
+    /**
+     * The most lights a single frame may contain; determines the slot size.
+     */
+    public Builder maxLights(int maxLights) {
+      this.maxLights = maxLights;
+      return this;
+    }
+
+    /**
+     * How long to park between polls once no frames have arrived for a
+     * while. Zero means to spin without ever parking.
+     */
+    public Builder idleParkNanos(long idleParkNanos) {
+      this.idleParkNanos = idleParkNanos;
+      return this;
+    }
+
+    public SharedMemoryIngress build() {
+      return new SharedMemoryIngress(client, file, slotCount, maxLights, idleParkNanos);
+    }
+
+  }
+
+  /**
+   * @return the size of each slot, in bytes, for a ring that holds up to
+   * {@code maxLights} lights per frame
+   */
+  public static int slotSize(int maxLights) {
+    int size = SLOT_HEADER_SIZE + Serialization.LIGHT_SIZE * maxLights;
+    // Keep slot headers aligned
+    return (size + 7) & ~7;
+  }
+
+  /**
+   * Map the file and start streaming frames from it. The client's stream must
+   * already be initialized, unless it was built with lazy start enabled.
+   * @throws IOException if the file cannot be mapped
+   */
+  public void start() throws IOException {
+    map();
+    running = true;
+    consumer.start();
+  }
+
+  /**
+   * @return the number of frames read from the ring, including skipped ones
+   */
+  public long framesReceived() {
+    return framesReceived.get();
+  }
+
+  /**
+   * @return the number of frames that were overwritten by newer ones before
+   * they could be sent
+   */
+  public long framesSkipped() {
+    return framesSkipped.get();
+  }
+
+  /**
+   * @return the number of frames that were malformed and not sent
+   */
+  public long framesRejected() {
+    return framesRejected.get();
+  }
+
+  /**
+   * @return the error that stopped the ingress, if any
+   */
+  public Exception failure() {
+    return failure;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    LockSupport.unpark(consumer);
+    if (consumer.isAlive() && consumer != Thread.currentThread()) {
+      // A send in progress may still have to time out
+      consumer.join(TimeUnit.NANOSECONDS.toMillis(idleParkNanos) + CLOSE_TIMEOUT_MILLIS);
+    }
+  }
+
+  /**
+   * Run an ingress as a standalone daemon, streaming to a single
+   * entertainment area until the process is terminated or sending fails for
+   * good.
+   * <p>
+   * Usage: {@code SharedMemoryIngress <bridge properties file> <ring file>}.
+   * The properties file must contain {@code bridge.host}, {@code username},
+   * {@code client.key}, and {@code entertainment.area.id}, and may contain
+   * {@code bridge.port}. The ring uses the default dimensions of
+   * {@link Builder}. Failed sends are handled by
+   * {@link SendFailurePolicy#RECONNECT reconnecting}, and the stream is
+   * stopped when the daemon exits.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.println("Usage: SharedMemoryIngress <bridge properties file> <ring file>");
+      System.exit(2);
+    }
+
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(Path.of(args[0]))) {
+      properties.load(reader);
+    }
+    HueEntertainmentClient client = HueEntertainmentClient.builder()
+        .host(requiredProperty(properties, "bridge.host"))
+        .port(Integer.parseInt(properties.getProperty(
+            "bridge.port",
+            Integer.toString(HueEntertainmentClient.Builder.DEFAULT_PORT)
+        )))
+        .username(requiredProperty(properties, "username"))
+        .clientKey(requiredProperty(properties, "client.key"))
+        .entertainmentArea(requiredProperty(properties, "entertainment.area.id"))
+        .sendFailurePolicy(SendFailurePolicy.RECONNECT)
+        .build();
+    SharedMemoryIngress ingress = builder(client).file(Path.of(args[1])).build();
+    Runtime.getRuntime().addShutdownHook(
+        new Thread(() -> shutDown(ingress, client), "joplin-shm-shutdown")
+    );
+
+    client.initializeStream();
+    ingress.start();
+    ingress.consumer.join();
+
+    Exception failure = ingress.failure();
+    if (failure != null) {
+      failure.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static String requiredProperty(Properties properties, String property) {
+    String result = properties.getProperty(property);
+    if (result == null)
+      throw new IllegalArgumentException("Missing required property " + property);
+    return result;
+  }
+
+  private static void shutDown(SharedMemoryIngress ingress, HueEntertainmentClient client) {
+    try {
+      ingress.close();
+      client.stopStream();
+      client.close();
+    } catch (IOException | InterruptedException e) {
+      // The process is exiting anyways, and the bridge ends the stream by itself before long
+    }
+  }
+
+  void map() throws IOException {
+    slotSize = slotSize(maxLights);
+    long size = SLOTS_OFFSET + (long) slotCount * slotSize;
+    try (FileChannel channel = FileChannel.open(
+        file,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE
+    )) {
+      mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+    mapping.order(ByteOrder.nativeOrder());
+    view = mapping.duplicate();
+
+    boolean compatible = mapping.getInt(0) == MAGIC
+        && mapping.getInt(4) == VERSION
+        && mapping.getInt(8) == slotCount
+        && mapping.getInt(12) == slotSize;
+    if (compatible) {
+      // Pick up where the last consumer left off, dropping anything it didn't get to
+      readSequence = (long) LONGS.getAcquire(mapping, WRITE_SEQUENCE_OFFSET);
+      pendingSequence = readSequence;
+      LONGS.setRelease(mapping, READ_SEQUENCE_OFFSET, readSequence);
+      return;
+    }
+
+    mapping.putInt(4, VERSION);
+    mapping.putInt(8, slotCount);
+    mapping.putInt(12, slotSize);
+    LONGS.setVolatile(mapping, WRITE_SEQUENCE_OFFSET, 0L);
+    LONGS.setVolatile(mapping, READ_SEQUENCE_OFFSET, 0L);
+    readSequence = 0;
+    pendingSequence = 0;
+    // Written last, so that producers waiting on it see a fully-initialized header
+    mapping.putInt(0, MAGIC);
+    mapping.force();
+  }
+
+  /**
+   * Take the newest available frame from the ring. The returned buffer is a
+   * view directly into the slot; the slot is not handed back to the producer
+   * until {@link #release()} is called.
+   * @return the frame's encoded lights, or null if no new frame is available
+   */
+  ByteBuffer poll() {
+    while (true) {
+      long writeSequence = (long) LONGS.getAcquire(mapping, WRITE_SEQUENCE_OFFSET);
+      long available = writeSequence - readSequence;
+      if (available <= 0) {
+        return null;
+      }
+
+      framesReceived.addAndGet(available);
+      framesSkipped.addAndGet(available - 1);
+      pendingSequence = writeSequence;
+
+      int slot = SLOTS_OFFSET + (int) ((writeSequence - 1) & (slotCount - 1)) * slotSize;
+      int numLights = mapping.getInt(slot);
+      if (numLights < 0 || numLights > maxLights) {
+        framesRejected.incrementAndGet();
+        release();
+        continue;
+      }
+
+      int start = slot + SLOT_HEADER_SIZE;
+      view.limit(start + numLights * Serialization.LIGHT_SIZE).position(start);
+      return view;
+    }
+  }
+
+  /**
+   * Hand every slot up to and including the last one returned by
+   * {@link #poll()} back to the producer.
+   */
+  void release() {
+    readSequence = pendingSequence;
+    LONGS.setRelease(mapping, READ_SEQUENCE_OFFSET, readSequence);
+  }
+
+  private void consume() {
+    int idleSpins = 0;
+    while (running) {
+      ByteBuffer frame = poll();
+      if (frame == null) {
+        if (idleSpins < SPINS_BEFORE_PARKING || idleParkNanos <= 0) {
+          idleSpins++;
+          Thread.onSpinWait();
+        } else {
+          LockSupport.parkNanos(this, idleParkNanos);
+        }
+        continue;
+      }
+      idleSpins = 0;
+
+      try {
+        client.sendEncodedLights(frame);
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+        running = false;
+      } finally {
+        release();
+      }
+    }
+  }
+
+}
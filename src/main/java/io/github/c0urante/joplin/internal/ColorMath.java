@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal;
+
+import io.github.c0urante.joplin.HueColor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Conversions and blending for 16-bit-per-component RGB colors, as sent to
+ * the bridge.
+ *
+ * @see <a href="https://developers.meethue.com/develop/application-design-guidance/color-conversion-formulas-rgb-to-xy-and-back/">
+ *   RGB to xy color conversion</a>
+ */
+public final class ColorMath {
+
+  private static final double MAX = 0xFFFF;
+
+  // D65, used for black (where chromaticity is undefined)
+  private static final double WHITE_X = 0.3127;
+  private static final double WHITE_Y = 0.3290;
+
+  /**
+   * Read the 16-bit red, green, and blue components of a color into
+   * {@code out[offset]}, {@code out[offset + 1]}, and {@code out[offset + 2]}.
+   * @param scratch a buffer with at least six bytes of capacity; its contents
+   *                will be overwritten
+   */
+  public static void decodeRgb(HueColor color, ByteBuffer scratch, int[] out, int offset) {
+    scratch.clear();
+    color.serializeTo(scratch);
+    out[offset] = scratch.getShort(0) & 0xFFFF;
+    out[offset + 1] = scratch.getShort(2) & 0xFFFF;
+    out[offset + 2] = scratch.getShort(4) & 0xFFFF;
+  }
+
+  /**
+   * Linearly blend two RGB colors component-wise.
+   * @param weight how far to go from {@code from} to {@code to}, between 0 and 1
+   */
+  public static void mixRgb(int[] from, int[] to, int offset, double weight, int[] out, int outOffset) {
+    for (int i = 0; i < 3; i++) {
+      double a = from[offset + i];
+      double b = to[offset + i];
+      out[outOffset + i] = (int) Math.round(a + (b - a) * weight);
+    }
+  }
+
+  /**
+   * Blend two RGB colors by linearly interpolating their CIE xy chromaticity
+   * and brightness, which avoids the desaturated midpoints that component-wise
+   * RGB blending produces between complementary colors.
+   * @param weight how far to go from {@code from} to {@code to}, between 0 and 1
+   * @param scratch an array with at least six elements; its contents will be
+   *                overwritten
+   */
+  public static void mixXy(
+      int[] from,
+      int[] to,
+      int offset,
+      double weight,
+      double[] scratch,
+      int[] out,
+      int outOffset
+  ) {
+    toXy(from[offset], from[offset + 1], from[offset + 2], scratch, 0);
+    toXy(to[offset], to[offset + 1], to[offset + 2], scratch, 3);
+    // Black has no meaningful chromaticity; fade in/out using the other color's
+    if (scratch[2] == 0) {
+      scratch[0] = scratch[3];
+      scratch[1] = scratch[4];
+    } else if (scratch[5] == 0) {
+      scratch[3] = scratch[0];
+      scratch[4] = scratch[1];
+    }
+    fromXy(
+        scratch[0] + (scratch[3] - scratch[0]) * weight,
+        scratch[1] + (scratch[4] - scratch[1]) * weight,
+        scratch[2] + (scratch[5] - scratch[2]) * weight,
+        out,
+        outOffset
+    );
+  }
+
+  /**
+   * Compute the CIE x and y chromaticity and the brightness (Y) of an RGB
+   * color, writing them to {@code out[offset]} through {@code out[offset + 2]}.
+   */
+  public static void toXy(int red, int green, int blue, double[] out, int offset) {
+    double r = gammaExpand(red / MAX);
+    double g = gammaExpand(green / MAX);
+    double b = gammaExpand(blue / MAX);
+
+    double x = r * 0.664511 + g * 0.154324 + b * 0.162028;
+    double y = r * 0.283881 + g * 0.668433 + b * 0.047685;
+    double z = r * 0.000088 + g * 0.072310 + b * 0.986039;
+
+    double sum = x + y + z;
+    if (sum == 0) {
+      out[offset] = WHITE_X;
+      out[offset + 1] = WHITE_Y;
+      out[offset + 2] = 0;
+    } else {
+      out[offset] = x / sum;
+      out[offset + 1] = y / sum;
+      out[offset + 2] = y;
+    }
+  }
+
+  /**
+   * Convert CIE x and y chromaticity and brightness (Y) back into RGB, writing
+   * the result to {@code out[offset]} through {@code out[offset + 2]}.
+   */
+  public static void fromXy(double x, double y, double brightness, int[] out, int offset) {
+    if (brightness <= 0 || y <= 0) {
+      out[offset] = 0;
+      out[offset + 1] = 0;
+      out[offset + 2] = 0;
+      return;
+    }
+
+    double bigY = brightness;
+    double bigX = (bigY / y) * x;
+    double bigZ = (bigY / y) * (1 - x - y);
+
+    double r = bigX * 1.656492 - bigY * 0.354851 - bigZ * 0.255038;
+    double g = -bigX * 0.707196 + bigY * 1.655397 + bigZ * 0.036152;
+    double b = bigX * 0.051713 - bigY * 0.121364 + bigZ * 1.011530;
+
+    // Colors outside of the RGB gamut get scaled back into it
+    double max = Math.max(r, Math.max(g, b));
+    if (max > 1) {
+      r /= max;
+      g /= max;
+      b /= max;
+    }
+
+    out[offset] = toComponent(r);
+    out[offset + 1] = toComponent(g);
+    out[offset + 2] = toComponent(b);
+  }
+
+  private static int toComponent(double linear) {
+    double value = gammaCompress(Math.max(0, linear));
+    return (int) Math.round(Math.min(1, value) * MAX);
+  }
+
+  private static double gammaExpand(double value) {
+    return value > 0.04045
+        ? Math.pow((value + 0.055) / 1.055, 2.4)
+        : value / 12.92;
+  }
+
+  private static double gammaCompress(double value) {
+    return value <= 0.0031308
+        ? 12.92 * value
+        : 1.055 * Math.pow(value, 1 / 2.4) - 0.055;
+  }
+
+}
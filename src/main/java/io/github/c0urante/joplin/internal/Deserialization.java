@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.c0urante.joplin.EntertainmentChannel;
+import io.github.c0urante.joplin.EntertainmentConfiguration;
+import io.github.c0urante.joplin.Gamut;
+import io.github.c0urante.joplin.Position;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsing for responses from the bridge's CLIP v2 REST API.
+ */
+public final class Deserialization {
+
+  /**
+   * @param configuration the {@code entertainment_configuration} resource
+   * @param entertainmentServices the {@code data} array of all
+   *                              {@code entertainment} resources on the bridge
+   * @param lights the {@code data} array of all {@code light} resources on the bridge
+   */
+  public static EntertainmentConfiguration entertainmentConfiguration(
+      JsonNode configuration,
+      JsonNode entertainmentServices,
+      JsonNode lights
+  ) throws IOException {
+    Map<String, String> lightsByService = new HashMap<>();
+    for (JsonNode service : entertainmentServices) {
+      JsonNode renderer = service.path("renderer_reference");
+      if ("light".equals(renderer.path("rtype").asText())) {
+        lightsByService.put(service.path("id").asText(), renderer.path("rid").asText());
+      }
+    }
+
+    Map<String, Gamut> gamutsByLight = new HashMap<>();
+    for (JsonNode light : lights) {
+      JsonNode gamutType = light.path("color").path("gamut_type");
+      gamutsByLight.put(
+          light.path("id").asText(),
+          Gamut.fromGamutType(gamutType.isTextual() ? gamutType.asText() : null)
+      );
+    }
+
+    JsonNode channelsNode = configuration.get("channels");
+    if (channelsNode == null || !channelsNode.isArray()) {
+      throw new IOException(
+          "Expected entertainment configuration to contain an array of channels, but found "
+              + channelsNode
+      );
+    }
+
+    List<EntertainmentChannel> channels = new ArrayList<>();
+    for (JsonNode channel : channelsNode) {
+      JsonNode position = channel.path("position");
+      List<String> lightIds = new ArrayList<>();
+      Gamut gamut = null;
+      for (JsonNode member : channel.path("members")) {
+        String lightId = lightsByService.get(member.path("service").path("rid").asText());
+        if (lightId == null || lightIds.contains(lightId)) {
+          continue;
+        }
+        lightIds.add(lightId);
+        Gamut lightGamut = gamutsByLight.getOrDefault(lightId, Gamut.OTHER);
+        gamut = gamut == null || gamut == lightGamut ? lightGamut : Gamut.OTHER;
+      }
+
+      channels.add(new EntertainmentChannel(
+          channel.path("channel_id").asInt(),
+          new Position(
+              position.path("x").asDouble(),
+              position.path("y").asDouble(),
+              position.path("z").asDouble()
+          ),
+          lightIds,
+          gamut != null ? gamut : Gamut.OTHER
+      ));
+    }
+    channels.sort(Comparator.comparingInt(EntertainmentChannel::channelId));
+
+    return new EntertainmentConfiguration(
+        configuration.path("id").asText(),
+        configuration.path("metadata").path("name").asText(configuration.path("name").asText()),
+        channels
+    );
+  }
+
+}
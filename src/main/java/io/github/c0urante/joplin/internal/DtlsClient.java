@@ -15,6 +15,7 @@
  */
 package io.github.c0urante.joplin.internal;
 
+import io.github.c0urante.joplin.internal.events.HandshakeEvent;
 import org.bouncycastle.tls.CipherSuite;
 import org.bouncycastle.tls.DTLSClientProtocol;
 import org.bouncycastle.tls.DTLSTransport;
@@ -29,31 +30,121 @@ import org.bouncycastle.tls.crypto.impl.bc.BcTlsCrypto;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
 
 public class DtlsClient implements AutoCloseable {
 
+  private static final int DEFAULT_MTU = 1500;
+
   private final DTLSTransport transport;
 
-  public DtlsClient(String hostnameOrIpAddress, int port, TlsPSKIdentity pskIdentity) throws IOException {
-    BouncyCastleClient bouncyCastleClient = new BouncyCastleClient(pskIdentity);
+  private DtlsClient(DTLSTransport transport) {
+    this.transport = transport;
+  }
+
+  /**
+   * Do everything needed to connect to the bridge short of the handshake
+   * itself: resolve its address, open a socket, and set up crypto state. The
+   * handshake can only succeed once streaming has been started via the REST
+   * API, but this part can be done beforehand.
+   * @param handshakeTimeoutMillis how long the handshake may take before it is
+   *                               abandoned
+   */
+  public static Prepared prepare(
+      String hostnameOrIpAddress,
+      int port,
+      TlsPSKIdentity pskIdentity,
+      int handshakeTimeoutMillis
+  ) throws IOException {
+    BouncyCastleClient bouncyCastleClient = new BouncyCastleClient(pskIdentity, handshakeTimeoutMillis);
+    // Seeding the random number generator can be surprisingly slow; get it out of the way now
+    bouncyCastleClient.getCrypto().getSecureRandom().nextInt();
 
     InetAddress address = InetAddress.getByName(hostnameOrIpAddress);
     DatagramSocket socket = new DatagramSocket();
-    // Extremely conservative. From the docs:
-    //   "After 10 seconds of no activity the connection is closed automatically"
-    socket.setSoTimeout(30_000);
-    socket.connect(address, port);
+    try {
+      // Extremely conservative. From the docs:
+      //   "After 10 seconds of no activity the connection is closed automatically"
+      socket.setSoTimeout(30_000);
+      socket.connect(address, port);
+    } catch (IOException | RuntimeException e) {
+      socket.close();
+      throw e;
+    }
+
+    DatagramTransport transport = new UDPTransport(socket, mtu(socket));
+
+    return new Prepared(bouncyCastleClient, transport, socket);
+  }
 
-    int mtu = 1500;
-    DatagramTransport transport = new UDPTransport(socket, mtu);
+  /**
+   * A connection to the bridge that is ready for a DTLS handshake.
+   */
+  public static class Prepared implements AutoCloseable {
 
-    DTLSClientProtocol protocol = new DTLSClientProtocol();
+    private final BouncyCastleClient bouncyCastleClient;
+    private final DatagramTransport transport;
+    private final DatagramSocket socket;
+
+    private Prepared(BouncyCastleClient bouncyCastleClient, DatagramTransport transport, DatagramSocket socket) {
+      this.bouncyCastleClient = bouncyCastleClient;
+      this.transport = transport;
+      this.socket = socket;
+    }
+
+    /**
+     * Perform the DTLS handshake. Streaming must already have been started
+     * for the entertainment area.
+     */
+    public DtlsClient connect() throws IOException {
+      return new DtlsClient(handshake());
+    }
+
+    /**
+     * Release the socket without connecting.
+     */
+    @Override
+    public void close() {
+      socket.close();
+    }
+
+    private DTLSTransport handshake() throws IOException {
+      DTLSClientProtocol protocol = new DTLSClientProtocol();
+      HandshakeEvent event = new HandshakeEvent();
+      event.begin();
+      try {
+        DTLSTransport result = protocol.connect(bouncyCastleClient, transport);
+        event.succeeded = true;
+        return result;
+      } catch (IOException | RuntimeException e) {
+        socket.close();
+        throw e;
+      } finally {
+        if (event.shouldCommit()) {
+          event.address = socket.getInetAddress().getHostAddress();
+          event.port = socket.getPort();
+          event.commit();
+        }
+      }
+    }
 
-    this.transport = protocol.connect(bouncyCastleClient, transport);
   }
 
   public void send(byte[] message) throws IOException {
-    transport.send(message, 0, message.length);
+    send(message, 0, message.length);
+  }
+
+  public void send(byte[] buffer, int offset, int length) throws IOException {
+    transport.send(buffer, offset, length);
+  }
+
+  /**
+   * @return the largest message that can be sent without being fragmented,
+   * after accounting for IP, UDP, and DTLS record overhead
+   */
+  public int sendLimit() throws IOException {
+    return transport.getSendLimit();
   }
 
   @Override
@@ -61,10 +152,32 @@ public class DtlsClient implements AutoCloseable {
     transport.close();
   }
 
+  // The MTU of the interface that traffic to the bridge is routed over
+  private static int mtu(DatagramSocket socket) {
+    try {
+      NetworkInterface networkInterface = NetworkInterface.getByInetAddress(socket.getLocalAddress());
+      if (networkInterface != null && networkInterface.getMTU() > 0) {
+        return networkInterface.getMTU();
+      }
+    } catch (SocketException e) {
+      // Fall through to the default
+    }
+    return DEFAULT_MTU;
+  }
+
   private static class BouncyCastleClient extends PSKTlsClient {
 
-    public BouncyCastleClient(TlsPSKIdentity pskIdentity) {
+    private final int handshakeTimeoutMillis;
+
+    public BouncyCastleClient(TlsPSKIdentity pskIdentity, int handshakeTimeoutMillis) {
       super(new BcTlsCrypto(), pskIdentity);
+      this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    // Without this, a bridge that never answers would block the handshake forever
+    @Override
+    public int getHandshakeTimeoutMillis() {
+      return handshakeTimeoutMillis;
     }
 
     @Override
@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, lock-free, multi-producer queue of pre-allocated, mutable
+ * entries. Publishing overwrites an entry in place, and never blocks or
+ * allocates; if the queue is full, the event is discarded instead. An entry
+ * is only reused once the consumer it was handed to has returned.
+ * <p>
+ * Consumption is serialized, so it is safe (if slower) to drain from more
+ * than one thread.
+ */
+public class EventRing<T> {
+
+  private final Object[] entries;
+  // One past the position most recently published to each slot; zero if none yet
+  private final AtomicLongArray published;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+  // Only written while holding the consumer lock
+  private volatile long head = 0;
+
+  /**
+   * @param capacity the maximum number of undrained events; will be rounded
+   *                 up to the next power of two
+   * @param factory  creates the entries that events are written to
+   */
+  public EventRing(int capacity, Supplier<? extends T> factory) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid value " + capacity
+              + " for capacity; "
+              + "must be positive"
+      );
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.entries = new Object[size];
+    for (int i = 0; i < size; i++) {
+      entries[i] = factory.get();
+    }
+    this.published = new AtomicLongArray(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * @param writer   fills in the claimed entry from the argument; should not
+   *                 retain the entry
+   * @param argument passed to the writer, so that it need not capture it
+   * @return whether the event was accepted; false if the ring was full
+   */
+  public <A> boolean publish(BiConsumer<? super T, ? super A> writer, A argument) {
+    while (true) {
+      long position = tail.get();
+      if (position - head > mask) {
+        discarded.incrementAndGet();
+        return false;
+      }
+      if (tail.compareAndSet(position, position + 1)) {
+        int index = (int) position & mask;
+        try {
+          writer.accept(entry(index), argument);
+        } finally {
+          // Even if the writer failed, so that later events aren't held up behind this one
+          published.lazySet(index, position + 1);
+        }
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Hand every currently-available event to the consumer, oldest first. The
+   * consumer should not retain the entries it is given, since they will be
+   * overwritten by later events.
+   * @return the number of events consumed
+   */
+  public synchronized int drain(Consumer<? super T> consumer) {
+    int result = 0;
+    long position = head;
+    while (true) {
+      int index = (int) position & mask;
+      if (published.get(index) != position + 1) {
+        // Either empty, or a producer has claimed the slot but not yet filled it
+        break;
+      }
+      result++;
+      try {
+        consumer.accept(entry(index));
+      } finally {
+        // Only now may producers reuse the entry
+        position++;
+        head = position;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return how many events have been discarded because the ring was full
+   */
+  public long discarded() {
+    return discarded.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  private T entry(int index) {
+    return (T) entries[index];
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A daemon thread that invokes a task at a fixed rate, skipping ticks that
+ * have already been missed instead of trying to catch up on them.
+ * <p>
+ * If the task throws an exception, the loop stops and the failure can be
+ * retrieved via {@link #failure()}.
+ */
+public class FrameLoop implements AutoCloseable {
+
+  public interface Task {
+    void run(long nowNanos) throws IOException;
+  }
+
+  private final Task task;
+  private final long intervalNanos;
+  private final Thread thread;
+
+  private volatile boolean running = false;
+  private volatile boolean wakeUpRequested = false;
+  private volatile Exception failure = null;
+
+  public FrameLoop(String name, double frameRate, Task task) {
+    this.task = task;
+    this.intervalNanos = Validation.frameIntervalNanos(frameRate);
+    this.thread = new Thread(this::run, name);
+    this.thread.setDaemon(true);
+  }
+
+  public void start() {
+    running = true;
+    thread.start();
+  }
+
+  /**
+   * Cut the current wait short so that the task runs as soon as possible.
+   */
+  public void wakeUp() {
+    wakeUpRequested = true;
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * @return the exception that stopped the loop, if any
+   */
+  public Exception failure() {
+    return failure;
+  }
+
+  public long intervalNanos() {
+    return intervalNanos;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    LockSupport.unpark(thread);
+    if (thread.isAlive() && thread != Thread.currentThread()) {
+      thread.join(TimeUnit.NANOSECONDS.toMillis(intervalNanos) + 1_000);
+    }
+  }
+
+  private void run() {
+    long deadline = System.nanoTime();
+    while (running) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining > 0 && !wakeUpRequested) {
+        LockSupport.parkNanos(this, remaining);
+        continue;
+      }
+      wakeUpRequested = false;
+
+      try {
+        task.run(System.nanoTime());
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+        running = false;
+        return;
+      }
+
+      deadline += intervalNanos;
+      if (System.nanoTime() - deadline > 0) {
+        // We've fallen behind; don't try to make up for lost frames
+        deadline = System.nanoTime();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache for bridge resources that expire after a fixed amount of time and
+ * can then be revalidated using the entity tag from the original response.
+ */
+public class ResourceCache<T> {
+
+  public static class Entry<T> {
+
+    private final T value;
+    private final String etag;
+    private final long expiresAtNanos;
+
+    private Entry(T value, String etag, long expiresAtNanos) {
+      this.value = value;
+      this.etag = etag;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public T value() {
+      return value;
+    }
+
+    /**
+     * @return the entity tag from the response the value was parsed from, or
+     * null if the bridge didn't provide one
+     */
+    public String etag() {
+      return etag;
+    }
+
+    public boolean isFresh(long nowNanos) {
+      return nowNanos - expiresAtNanos < 0;
+    }
+
+  }
+
+  private final Map<String, Entry<T>> entries = new ConcurrentHashMap<>();
+
+  /**
+   * @return the cached entry for the key, which may be stale, or null if
+   * nothing has been cached for it
+   */
+  public Entry<T> get(String key) {
+    return entries.get(key);
+  }
+
+  public void put(String key, T value, String etag, long ttlNanos) {
+    entries.put(key, new Entry<>(value, etag, System.nanoTime() + ttlNanos));
+  }
+
+  /**
+   * Mark an existing entry as fresh again, after the bridge has confirmed
+   * that it hasn't changed.
+   */
+  public void revalidate(String key, Entry<T> entry, long ttlNanos) {
+    put(key, entry.value, entry.etag, ttlNanos);
+  }
+
+}
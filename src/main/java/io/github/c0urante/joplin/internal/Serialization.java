@@ -22,13 +22,89 @@ import java.nio.charset.StandardCharsets;
 
 public final class Serialization {
 
-  public static byte[] serializeStreamCommand(
+  public static final int HEADER_SIZE = 52;
+  public static final int LIGHT_SIZE = 7;
+  /**
+   * The most channels the bridge accepts in a single message.
+   */
+  public static final int MAX_LIGHTS_PER_MESSAGE = 20;
+
+  /**
+   * @param sendLimit the largest datagram that can be sent without being
+   *                  fragmented, in bytes
+   * @return the most lights that fit in a single message, which may be zero
+   */
+  public static int lightsPerMessage(int sendLimit) {
+    return Math.max(0, Math.min(MAX_LIGHTS_PER_MESSAGE, (sendLimit - HEADER_SIZE) / LIGHT_SIZE));
+  }
+
+  public static int messageSize(int numLights) {
+    return HEADER_SIZE + LIGHT_SIZE * numLights;
+  }
+
+  /**
+   * Serialize a message for part of a frame into an existing buffer.
+   * @param result the buffer to write to, starting at index zero; must have
+   *               room for {@link #messageSize(int) messageSize(length)} bytes
+   * @param lights the lights of the whole frame
+   * @param offset the index of the first light to include in the message
+   * @param length how many lights to include in the message
+   * @return the size of the message
+   */
+  public static int serializeStreamCommand(
+      byte[] result,
+      byte colorSpace,
+      byte sequence,
+      byte[] entertainmentArea,
+      Light[] lights,
+      int offset,
+      int length
+  ) {
+    ByteBuffer buffer = ByteBuffer.wrap(result);
+    serializeHeader(buffer, colorSpace, sequence, entertainmentArea);
+
+    // Lights (channel + color)
+    for (int i = offset; i < offset + length; i++) {
+      lights[i].serializeTo(buffer);
+    }
+
+    return buffer.position();
+  }
+
+  /**
+   * Serialize a message for part of a frame into an existing buffer.
+   * @param result the buffer to write to, starting at index zero; must have
+   *               room for {@link #messageSize(int) messageSize(length)} bytes
+   * @param lights lights that have already been serialized via
+   *               {@link Light#serializeTo(ByteBuffer)}; the next
+   *               {@code length} of them are copied, starting at the buffer's
+   *               position, which is advanced past them
+   * @param length how many lights to include in the message
+   * @return the size of the message
+   */
+  public static int serializeStreamCommand(
+      byte[] result,
       byte colorSpace,
+      byte sequence,
       byte[] entertainmentArea,
-      Light[] lights
+      ByteBuffer lights,
+      int length
   ) {
-    ByteBuffer result = ByteBuffer.allocate(52 + 7 * lights.length);
+    ByteBuffer buffer = ByteBuffer.wrap(result);
+    serializeHeader(buffer, colorSpace, sequence, entertainmentArea);
+
+    int size = LIGHT_SIZE * length;
+    lights.get(result, buffer.position(), size);
 
+    return buffer.position() + size;
+  }
+
+  private static void serializeHeader(
+      ByteBuffer result,
+      byte colorSpace,
+      byte sequence,
+      byte[] entertainmentArea
+  ) {
     // Protocol name
     result.put("HueStream".getBytes(StandardCharsets.UTF_8));
 
@@ -36,8 +112,8 @@ public final class Serialization {
     result.put((byte) 0x02);
     result.put((byte) 0x00);
 
-    // Sequence number (1 byte, currently unused)
-    result.put((byte) 0x00);
+    // Sequence number (1 byte, currently ignored by the bridge)
+    result.put(sequence);
 
     // Reserved (2 bytes, all zeros should be sent)
     result.put((byte) 0x00);
@@ -51,13 +127,6 @@ public final class Serialization {
 
     // Entertainment area ID
     result.put(entertainmentArea);
-
-    // Lights (channel + color)
-    for (Light light : lights) {
-      light.serializeTo(result);
-    }
-
-    return result.array();
   }
 
 }
@@ -15,7 +15,9 @@
  */
 package io.github.c0urante.joplin.internal;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 
 public class Validation {
 
@@ -49,7 +51,7 @@ public class Validation {
   }
 
   private static void validateColor(int value, String color) {
-    if (value > 0xFFFF)
+    if (value < 0 || value > 0xFFFF)
       throw new IllegalArgumentException(
           "Invalid value " + value
               + " for color " + color
@@ -79,4 +81,83 @@ public class Validation {
     return (byte) colorSpace;
   }
 
+  public static long frameIntervalNanos(double frameRate) {
+    if (!(frameRate > 0) || Double.isInfinite(frameRate))
+      throw new IllegalArgumentException(
+          "Invalid value " + frameRate
+              + " for frame rate; "
+              + "must be a finite, positive number"
+      );
+
+    return Math.max(1, Math.round(1_000_000_000d / frameRate));
+  }
+
+  public static Duration configurationTtl(Duration ttl) {
+    if (ttl == null || ttl.isNegative())
+      throw new IllegalArgumentException(
+          "Invalid value " + ttl
+              + " for configuration TTL; "
+              + "must be non-null and non-negative"
+      );
+
+    return ttl;
+  }
+
+  public static int handshakeTimeoutMillis(Duration timeout) {
+    if (timeout == null
+        || timeout.compareTo(Duration.ofMillis(1)) < 0
+        || timeout.compareTo(Duration.ofMillis(Integer.MAX_VALUE)) > 0)
+      throw new IllegalArgumentException(
+          "Invalid value " + timeout
+              + " for handshake timeout; "
+              + "must be between 1 and " + Integer.MAX_VALUE + " milliseconds, inclusive"
+      );
+
+    return (int) timeout.toMillis();
+  }
+
+  public static Duration outputLatency(Duration latency) {
+    if (latency == null || latency.isNegative())
+      throw new IllegalArgumentException(
+          "Invalid value " + latency
+              + " for output latency; "
+              + "must be non-null and non-negative"
+      );
+
+    return latency;
+  }
+
+  public static Duration lateTolerance(Duration tolerance) {
+    if (tolerance == null || tolerance.isNegative())
+      throw new IllegalArgumentException(
+          "Invalid value " + tolerance
+              + " for late tolerance; "
+              + "must be non-null and non-negative"
+      );
+
+    return tolerance;
+  }
+
+  /**
+   * @return the number of lights in the buffer
+   */
+  public static int encodedLights(ByteBuffer lights) {
+    int remaining = lights.remaining();
+    if (remaining % Serialization.LIGHT_SIZE != 0)
+      throw new IllegalArgumentException(
+          "Invalid length " + remaining
+              + " for encoded lights; "
+              + "must be a multiple of " + Serialization.LIGHT_SIZE
+      );
+
+    int result = remaining / Serialization.LIGHT_SIZE;
+    if (result > 256)
+      throw new IllegalArgumentException(
+          "Invalid number of encoded lights " + result
+              + "; must be at most 256"
+      );
+
+    return result;
+  }
+
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("io.github.c0urante.joplin.FrameSend")
+@Label("Frame Send")
+@Description("Transmission of every copy of a frame to the bridge")
+@Category({"Joplin", "DTLS"})
+@StackTrace(false)
+public class FrameSendEvent extends Event {
+
+  @Label("Channels")
+  public int channels;
+
+  @Label("Repeats")
+  @Description("How many copies of the frame were sent")
+  public int repeats;
+
+  @Label("Datagrams")
+  @Description("How many datagrams a single copy of the frame was split into")
+  public int datagrams;
+
+  @Label("Size")
+  @Description("The size of a single copy of the frame, across all of its datagrams")
+  @DataAmount
+  public int bytes;
+
+}
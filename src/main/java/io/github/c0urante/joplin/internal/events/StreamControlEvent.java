@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.github.c0urante.joplin.StreamControl")
+@Label("Stream Control")
+@Description("A REST request to start or stop streaming to an entertainment area")
+@Category({"Joplin", "REST"})
+public class StreamControlEvent extends Event {
+
+  @Label("Entertainment Area")
+  public String entertainmentArea;
+
+  @Label("Action")
+  public String action;
+
+  @Label("HTTP Status")
+  @Description("The status code of the response, or 0 if no response was received")
+  public int statusCode;
+
+}
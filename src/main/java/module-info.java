@@ -1,9 +1,11 @@
 module io.github.c0urante.joplin {
     requires java.desktop;
     requires java.net.http;
+    requires jdk.jfr;
     requires com.fasterxml.jackson.databind;
     requires org.bouncycastle.tls;
 
     exports io.github.c0urante.joplin;
     exports io.github.c0urante.joplin.errors;
+    exports io.github.c0urante.joplin.gateway;
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Builds clients, and a {@link FakeBridge} for them to stream to, and closes
+ * them all after each test, most recently created first. Register it with
+ * {@code @RegisterExtension final ClientFixture fixture = new ClientFixture();}.
+ */
+public class ClientFixture implements AfterEachCallback {
+
+  private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+  private FakeBridge bridge = null;
+
+  /**
+   * @return the fake bridge, which is started the first time this is invoked
+   * during a test
+   */
+  public FakeBridge bridge() throws IOException {
+    if (bridge == null) {
+      bridge = closeAfterTest(FakeBridge.start());
+    }
+    return bridge;
+  }
+
+  /**
+   * @return a client of a bridge that is never contacted, for tests that
+   * don't initialize a stream
+   */
+  public HueEntertainmentClient offlineClient() {
+    return client(TestClients.offline());
+  }
+
+  /**
+   * @return a client of the fake bridge whose stream has been initialized
+   */
+  public HueEntertainmentClient streamingClient() throws Exception {
+    return streamingClient(bridge().clientBuilder());
+  }
+
+  /**
+   * @param builder a builder for a client of the fake bridge
+   * @return a client whose stream has been initialized
+   */
+  public HueEntertainmentClient streamingClient(HueEntertainmentClient.Builder builder) throws Exception {
+    HueEntertainmentClient result = client(builder);
+    result.initializeStream();
+    return result;
+  }
+
+  /**
+   * @return a client built from the builder, without initializing its stream
+   */
+  public HueEntertainmentClient client(HueEntertainmentClient.Builder builder) {
+    return closeAfterTest(builder.build());
+  }
+
+  public <T extends AutoCloseable> T closeAfterTest(T resource) {
+    resources.push(resource);
+    return resource;
+  }
+
+  @Override
+  public void afterEach(ExtensionContext context) throws Exception {
+    Exception failure = null;
+    while (!resources.isEmpty()) {
+      try {
+        resources.pop().close();
+      } catch (Exception e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    bridge = null;
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+}
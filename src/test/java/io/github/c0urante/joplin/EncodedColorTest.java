@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class EncodedColorTest {
+
+  private static final Color[] PALETTE = {
+      Color.RED, Color.ORANGE, Color.YELLOW, Color.GREEN,
+      Color.CYAN, Color.BLUE, Color.MAGENTA, Color.PINK,
+      Color.WHITE, Color.LIGHT_GRAY, Color.GRAY, Color.DARK_GRAY,
+      Color.BLACK, new Color(0x123456), new Color(0xABCDEF), new Color(0x7F7F00)
+  };
+
+  @Test
+  public void testMatchesRgb() {
+    for (Color color : PALETTE) {
+      assertArrayEquals(serialize(new Rgb(color)), serialize(EncodedColor.of(color)));
+      assertArrayEquals(serialize(new Rgb(color)), serialize(EncodedColor.rgb24(color.getRGB())));
+    }
+    assertArrayEquals(
+        serialize(new Rgb(0x1234, 0x5678, 0x9ABC)),
+        serialize(EncodedColor.of(0x1234, 0x5678, 0x9ABC))
+    );
+    assertArrayEquals(
+        serialize(new Rgb(0x1234, 0x5678, 0x9ABC)),
+        serialize(EncodedColor.rgb48(0x123456789ABCL))
+    );
+  }
+
+  @Test
+  public void testCached() {
+    EncodedColor orange = EncodedColor.of(Color.ORANGE);
+    assertSame(orange, EncodedColor.of(Color.ORANGE));
+    assertSame(orange, EncodedColor.rgb24(0xFFC800));
+    assertEquals(orange, EncodedColor.rgb48(orange.rgb48()));
+  }
+
+  @Test
+  public void testValidation() {
+    assertThrows(IllegalArgumentException.class, () -> EncodedColor.of(0x10000, 0, 0));
+    assertThrows(IllegalArgumentException.class, () -> EncodedColor.of(0, 0x10000, 0));
+    assertThrows(IllegalArgumentException.class, () -> EncodedColor.of(0, 0, 0x10000));
+    assertThrows(IllegalArgumentException.class, () -> EncodedColor.of(-1, 0, 0));
+    assertThrows(IllegalArgumentException.class, () -> EncodedColor.of(0, -1, 0));
+    assertThrows(IllegalArgumentException.class, () -> EncodedColor.of(0, 0, Integer.MIN_VALUE));
+    assertThrows(IllegalArgumentException.class, () -> EncodedColor.rgb48(1L << 48));
+    assertThrows(IllegalArgumentException.class, () -> EncodedColor.rgb48(-1));
+    // Shares its validation with Rgb
+    assertThrows(IllegalArgumentException.class, () -> new Rgb(-1, 0, 0));
+  }
+
+  @Test
+  public void testRejectedComponentsDoNotPolluteCache() {
+    EncodedColor blue = EncodedColor.of(0, 0, 0xFFFF);
+    // Would sign-extend into the red and green bits of the cache key if it were accepted
+    assertThrows(IllegalArgumentException.class, () -> EncodedColor.of(0, 0, -1));
+    assertSame(blue, EncodedColor.of(0, 0, 0xFFFF));
+    assertEquals(0xFFFFL, EncodedColor.of(0, 0, 0xFFFF).rgb48());
+  }
+
+  @Test
+  @Tag("benchmark")
+  public void benchmarkPaletteFrames(TestReporter reporter) {
+    // Encode a 20-channel frame from a fixed palette, as a palette-driven effect would
+    ByteBuffer frame = ByteBuffer.allocate(20 * 7);
+    HueColor[] rgbPalette = new HueColor[PALETTE.length];
+    HueColor[] encodedPalette = new HueColor[PALETTE.length];
+    for (int i = 0; i < PALETTE.length; i++) {
+      rgbPalette[i] = new Rgb(PALETTE[i]);
+      encodedPalette[i] = EncodedColor.of(PALETTE[i]);
+    }
+    int iterations = 2_000_000;
+
+    for (int round = 0; round < 5; round++) {
+      long rebuiltRgb = time(iterations, () -> {
+        frame.clear();
+        for (int channel = 0; channel < 20; channel++) {
+          new Light(channel, new Rgb(PALETTE[channel & 15])).serializeTo(frame);
+        }
+      });
+      // Every variant has to produce the same frame for the comparison to be fair
+      byte[] expected = frame.array().clone();
+      long cachedEncoded = time(iterations, () -> {
+        frame.clear();
+        for (int channel = 0; channel < 20; channel++) {
+          new Light(channel, EncodedColor.of(PALETTE[channel & 15])).serializeTo(frame);
+        }
+      });
+      assertArrayEquals(expected, frame.array());
+      long reusedRgb = time(iterations, () -> {
+        frame.clear();
+        for (int channel = 0; channel < 20; channel++) {
+          rgbPalette[channel & 15].serializeTo(frame.put((byte) channel));
+        }
+      });
+      assertArrayEquals(expected, frame.array());
+      long reusedEncoded = time(iterations, () -> {
+        frame.clear();
+        for (int channel = 0; channel < 20; channel++) {
+          encodedPalette[channel & 15].serializeTo(frame.put((byte) channel));
+        }
+      });
+      assertArrayEquals(expected, frame.array());
+
+      reporter.publishEntry(
+          "Round " + round + " (ns/frame)",
+          String.format(
+              "rebuilt Rgb %.1f, cached EncodedColor %.1f, reused Rgb %.1f, reused EncodedColor %.1f",
+              rebuiltRgb / (double) iterations,
+              cachedEncoded / (double) iterations,
+              reusedRgb / (double) iterations,
+              reusedEncoded / (double) iterations
+          )
+      );
+    }
+  }
+
+  private static long time(int iterations, Runnable frame) {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      frame.run();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static byte[] serialize(HueColor color) {
+    ByteBuffer buffer = ByteBuffer.allocate(6);
+    color.serializeTo(buffer);
+    return buffer.array();
+  }
+
+}
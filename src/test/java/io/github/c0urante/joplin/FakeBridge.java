@@ -0,0 +1,611 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import io.github.c0urante.joplin.internal.Serialization;
+import org.bouncycastle.tls.CipherSuite;
+import org.bouncycastle.tls.DTLSServerProtocol;
+import org.bouncycastle.tls.DTLSTransport;
+import org.bouncycastle.tls.DatagramTransport;
+import org.bouncycastle.tls.PSKTlsServer;
+import org.bouncycastle.tls.ProtocolVersion;
+import org.bouncycastle.tls.TlsPSKIdentityManager;
+import org.bouncycastle.tls.TlsUtils;
+import org.bouncycastle.tls.crypto.impl.bc.BcTlsCrypto;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stand-in for a Hue bridge that runs on the loopback interface, for tests
+ * that exercise a client's REST and DTLS traffic.
+ * <p>
+ * The REST API is served over plain HTTP and only understands the requests
+ * that clients make: starting and stopping streaming, and reading the
+ * entertainment configuration, entertainment services, and lights. The DTLS
+ * endpoint accepts handshakes with the client key from {@link #CLIENT_KEY}
+ * and records every stream message it receives.
+ */
+public class FakeBridge implements AutoCloseable {
+
+  public static final String USERNAME = "username";
+  public static final String CLIENT_KEY = "000102030405060708090a0b0c0d0e0f";
+
+  private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+  private static final int DATAGRAM_LIMIT = 1500;
+
+  private final ServerSocket restSocket;
+  private final InetSocketAddress dtlsAddress;
+  private final Map<SocketAddress, Session> sessions = new ConcurrentHashMap<>();
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+  private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+  private final List<Thread> threads = new CopyOnWriteArrayList<>();
+  private final List<Socket> connections = new CopyOnWriteArrayList<>();
+  private final AtomicInteger handshakes = new AtomicInteger();
+  private final AtomicInteger notModified = new AtomicInteger();
+
+  private volatile DatagramSocket dtlsSocket;
+  private volatile boolean ignoreHandshakes = false;
+  private volatile int startStatus = 200;
+  private volatile int stopStatus = 200;
+  private volatile CountDownLatch startGate = null;
+  private volatile boolean closed = false;
+
+  private FakeBridge() throws IOException {
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    this.restSocket = new ServerSocket(0, 50, loopback);
+    this.dtlsSocket = new DatagramSocket(new InetSocketAddress(loopback, 0));
+    this.dtlsAddress = (InetSocketAddress) dtlsSocket.getLocalSocketAddress();
+  }
+
+  public static FakeBridge start() throws IOException {
+    FakeBridge result = new FakeBridge();
+    result.spawn("fake-bridge-rest", result::acceptRest);
+    result.spawn("fake-bridge-dtls", result::receiveDtls);
+    return result;
+  }
+
+  /**
+   * @return a builder for clients of this bridge, with the given
+   * entertainment area; a single try per frame, so that every frame is
+   * received exactly once; and a host, port, and credentials that are already
+   * filled in
+   */
+  public HueEntertainmentClient.Builder clientBuilder(String entertainmentArea) {
+    return HueEntertainmentClient.builder()
+        .host(dtlsAddress.getAddress().getHostAddress())
+        .port(dtlsAddress.getPort())
+        .username(USERNAME)
+        .clientKey(CLIENT_KEY)
+        .entertainmentArea(entertainmentArea)
+        .tries(1)
+        .restUri(URI.create("http://127.0.0.1:" + restSocket.getLocalPort()));
+  }
+
+  public HueEntertainmentClient.Builder clientBuilder() {
+    return clientBuilder(TestClients.ENTERTAINMENT_AREA);
+  }
+
+  /**
+   * Whether to ignore every datagram from clients that haven't completed a
+   * handshake yet, as a bridge that isn't streaming to them would.
+   */
+  public void ignoreHandshakes(boolean ignoreHandshakes) {
+    this.ignoreHandshakes = ignoreHandshakes;
+  }
+
+  /**
+   * Stop listening for DTLS traffic and drop every session, so that clients
+   * fail to send to the bridge until {@link #resumeDtls()} is invoked.
+   */
+  public void suspendDtls() {
+    dtlsSocket.close();
+    for (Session session : sessions.values()) {
+      session.ended = true;
+    }
+    sessions.clear();
+  }
+
+  /**
+   * Listen for DTLS traffic on the same port as before.
+   */
+  public void resumeDtls() throws IOException {
+    dtlsSocket = new DatagramSocket(dtlsAddress);
+    spawn("fake-bridge-dtls", this::receiveDtls);
+  }
+
+  /**
+   * Respond to requests to start streaming with the given status code.
+   */
+  public void startStatus(int startStatus) {
+    this.startStatus = startStatus;
+  }
+
+  /**
+   * Respond to requests to stop streaming with the given status code.
+   */
+  public void stopStatus(int stopStatus) {
+    this.stopStatus = stopStatus;
+  }
+
+  /**
+   * Hold back responses to requests to start streaming until
+   * {@link #releaseStarts()} is invoked.
+   */
+  public void holdStarts() {
+    startGate = new CountDownLatch(1);
+  }
+
+  public void releaseStarts() {
+    CountDownLatch gate = startGate;
+    startGate = null;
+    if (gate != null) {
+      gate.countDown();
+    }
+  }
+
+  /**
+   * @return every REST request received so far, oldest first, in the form
+   * {@code "start <area>"}, {@code "stop <area>"}, or {@code "get <resource>"}
+   */
+  public List<String> requests() {
+    return new ArrayList<>(requests);
+  }
+
+  /**
+   * Wait until a REST request has been received.
+   * @return whether it was received before timing out
+   */
+  public boolean awaitRequest(String request) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+    while (!requests.contains(request)) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      Thread.sleep(1);
+    }
+    return true;
+  }
+
+  /**
+   * @return the next stream message received over DTLS, or null if none
+   * arrives before timing out
+   */
+  public Frame nextFrame() throws InterruptedException {
+    return frames.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the next stream message received over DTLS, if one has already
+   * arrived
+   */
+  public Frame pollFrame() {
+    return frames.poll();
+  }
+
+  /**
+   * @return the number of DTLS handshakes that have completed
+   */
+  public int handshakes() {
+    return handshakes.get();
+  }
+
+  /**
+   * @return the number of GET requests answered with 304 Not Modified, since
+   * the client already had the current version of the resource
+   */
+  public int notModified() {
+    return notModified.get();
+  }
+
+  @Override
+  public void close() throws IOException, InterruptedException {
+    closed = true;
+    releaseStarts();
+    restSocket.close();
+    dtlsSocket.close();
+    // Unblocks connection threads waiting for another request
+    for (Socket connection : connections) {
+      connection.close();
+    }
+    for (Thread thread : threads) {
+      thread.interrupt();
+      thread.join(TIMEOUT_MILLIS);
+    }
+  }
+
+  /**
+   * A stream message, as received by the bridge.
+   */
+  public static class Frame {
+
+    private final String entertainmentArea;
+    private final byte sequence;
+    private final ByteBuffer lights;
+
+    private Frame(byte[] message, int length) {
+      this.sequence = message[11];
+      this.entertainmentArea = new String(message, 16, 36, StandardCharsets.UTF_8);
+      this.lights = ByteBuffer.wrap(
+          Arrays.copyOfRange(message, Serialization.HEADER_SIZE, length)
+      ).asReadOnlyBuffer();
+    }
+
+    public String entertainmentArea() {
+      return entertainmentArea;
+    }
+
+    public byte sequence() {
+      return sequence;
+    }
+
+    public int numLights() {
+      return lights.remaining() / Serialization.LIGHT_SIZE;
+    }
+
+    public int channel(int light) {
+      return lights.get(light * Serialization.LIGHT_SIZE) & 0xFF;
+    }
+
+    /**
+     * @param component 0 for red, 1 for green, or 2 for blue
+     */
+    public int component(int light, int component) {
+      return lights.getShort(light * Serialization.LIGHT_SIZE + 1 + component * 2) & 0xFFFF;
+    }
+
+    /**
+     * @return the lights in the message, encoded as by
+     * {@link Light#serializeTo(ByteBuffer)}
+     */
+    public ByteBuffer lights() {
+      return lights.duplicate();
+    }
+
+  }
+
+  private void spawn(String name, Runnable task) {
+    Thread thread = new Thread(task, name);
+    thread.setDaemon(true);
+    threads.add(thread);
+    thread.start();
+  }
+
+  private void acceptRest() {
+    while (!closed) {
+      Socket connection;
+      try {
+        connection = restSocket.accept();
+      } catch (IOException e) {
+        return;
+      }
+      connections.add(connection);
+      spawn("fake-bridge-rest-connection", () -> serveRest(connection));
+    }
+  }
+
+  private void serveRest(Socket connection) {
+    try (Socket socket = connection) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+      // Keep the connection alive for as long as the client wants to reuse it
+      while (!closed) {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty()) {
+          return;
+        }
+        int contentLength = 0;
+        String ifNoneMatch = null;
+        for (String header = readLine(in); header != null && !header.isEmpty(); header = readLine(in)) {
+          int colon = header.indexOf(':');
+          if (colon <= 0) {
+            continue;
+          }
+          String name = header.substring(0, colon).trim();
+          String value = header.substring(colon + 1).trim();
+          if (name.equalsIgnoreCase("Content-Length")) {
+            contentLength = Integer.parseInt(value);
+          } else if (name.equalsIgnoreCase("If-None-Match")) {
+            ifNoneMatch = value;
+          }
+        }
+        byte[] body = in.readNBytes(contentLength);
+
+        String[] parts = requestLine.split(" ");
+        Response response = respond(parts[0], parts[1], new String(body, StandardCharsets.UTF_8));
+        if (parts[0].equals("GET") && response.status == 200) {
+          response = withEtag(response, ifNoneMatch);
+        }
+        byte[] responseBody = response.body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + response.status + " Fake\r\n"
+            + "Content-Type: application/json\r\n"
+            + (response.etag != null ? "ETag: " + response.etag + "\r\n" : "")
+            + "Content-Length: " + responseBody.length + "\r\n"
+            + "\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(responseBody);
+        out.flush();
+      }
+    } catch (IOException | InterruptedException e) {
+      // The client hung up, or the bridge is closing
+    } finally {
+      connections.remove(connection);
+    }
+  }
+
+  // Resources never change, so the tag only depends on the body
+  private Response withEtag(Response response, String ifNoneMatch) {
+    String etag = "\"" + Integer.toHexString(response.body.hashCode()) + "\"";
+    if (etag.equals(ifNoneMatch)) {
+      notModified.incrementAndGet();
+      return new Response(304, "", etag);
+    }
+    return new Response(response.status, response.body, etag);
+  }
+
+  private Response respond(String method, String path, String body) throws InterruptedException {
+    String prefix = "/clip/v2/resource/";
+    if (!path.startsWith(prefix)) {
+      return Response.error(404, "Not found");
+    }
+    String resource = path.substring(prefix.length());
+
+    if (method.equals("GET")) {
+      requests.add("get " + resource);
+      if (resource.startsWith("entertainment_configuration/")) {
+        String area = resource.substring("entertainment_configuration/".length());
+        return new Response(
+            200,
+            "{\"errors\": [], \"data\": [{\"id\": \"" + area + "\", "
+                + "\"type\": \"entertainment_configuration\", "
+                + "\"metadata\": {\"name\": \"Fake\"}, \"channels\": []}]}"
+        );
+      }
+      return new Response(200, "{\"errors\": [], \"data\": []}");
+    }
+
+    if (method.equals("PUT") && resource.startsWith("entertainment_configuration/")) {
+      String area = resource.substring("entertainment_configuration/".length());
+      boolean start = body.contains("\"start\"");
+      requests.add((start ? "start " : "stop ") + area);
+      if (!start) {
+        int status = stopStatus;
+        return status == 200 ? Response.ok(area) : Response.error(status, "Failed to stop streaming");
+      }
+
+      CountDownLatch gate = startGate;
+      if (gate != null) {
+        gate.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      }
+      int status = startStatus;
+      return status == 200 ? Response.ok(area) : Response.error(status, "Failed to start streaming");
+    }
+
+    return Response.error(405, "Method not allowed");
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    for (int b = in.read(); b != '\n'; b = in.read()) {
+      if (b < 0) {
+        return line.size() > 0 ? line.toString(StandardCharsets.US_ASCII) : null;
+      }
+      if (b != '\r') {
+        line.write(b);
+      }
+    }
+    return line.toString(StandardCharsets.US_ASCII);
+  }
+
+  private static class Response {
+    final int status;
+    final String body;
+    final String etag;
+
+    Response(int status, String body) {
+      this(status, body, null);
+    }
+
+    Response(int status, String body, String etag) {
+      this.status = status;
+      this.body = body;
+      this.etag = etag;
+    }
+
+    static Response ok(String area) {
+      return new Response(
+          200,
+          "{\"errors\": [], \"data\": [{\"rid\": \"" + area + "\", "
+              + "\"rtype\": \"entertainment_configuration\"}]}"
+      );
+    }
+
+    static Response error(int status, String description) {
+      return new Response(
+          status,
+          "{\"errors\": [{\"description\": \"" + description + "\"}], \"data\": []}"
+      );
+    }
+  }
+
+  // Hands each datagram to the session for the address it came from, starting one if necessary
+  private void receiveDtls() {
+    DatagramSocket socket = dtlsSocket;
+    byte[] buffer = new byte[DATAGRAM_LIMIT];
+    while (!closed) {
+      DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      try {
+        socket.receive(packet);
+      } catch (IOException e) {
+        return;
+      }
+      SocketAddress peer = packet.getSocketAddress();
+      Session session = sessions.get(peer);
+      if (session == null) {
+        if (ignoreHandshakes) {
+          continue;
+        }
+        session = new Session(socket, peer);
+        sessions.put(peer, session);
+        spawn("fake-bridge-session", session::run);
+      }
+      session.inbound.add(Arrays.copyOf(packet.getData(), packet.getLength()));
+    }
+  }
+
+  private class Session implements DatagramTransport {
+
+    final DatagramSocket socket;
+    final SocketAddress peer;
+    final BlockingQueue<byte[]> inbound = new LinkedBlockingQueue<>();
+    volatile boolean ended = false;
+
+    Session(DatagramSocket socket, SocketAddress peer) {
+      this.socket = socket;
+      this.peer = peer;
+    }
+
+    void run() {
+      DTLSTransport transport = null;
+      try {
+        transport = new DTLSServerProtocol().accept(new Server(), this);
+        handshakes.incrementAndGet();
+        byte[] message = new byte[DATAGRAM_LIMIT];
+        while (!closed && !ended) {
+          int length = transport.receive(message, 0, message.length, 100);
+          if (length >= Serialization.HEADER_SIZE) {
+            frames.add(new Frame(message, length));
+          }
+        }
+      } catch (IOException e) {
+        // The client went away, or the handshake failed
+      } finally {
+        sessions.remove(peer, this);
+        if (transport != null) {
+          try {
+            transport.close();
+          } catch (IOException e) {
+            // Best effort
+          }
+        }
+      }
+    }
+
+    @Override
+    public int getReceiveLimit() {
+      return DATAGRAM_LIMIT;
+    }
+
+    @Override
+    public int getSendLimit() {
+      return DATAGRAM_LIMIT;
+    }
+
+    @Override
+    public int receive(byte[] buf, int off, int len, int waitMillis) throws IOException {
+      byte[] datagram;
+      try {
+        datagram = inbound.poll(waitMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for datagram");
+      }
+      if (datagram == null) {
+        return -1;
+      }
+      int length = Math.min(len, datagram.length);
+      System.arraycopy(datagram, 0, buf, off, length);
+      return length;
+    }
+
+    @Override
+    public void send(byte[] buf, int off, int len) throws IOException {
+      socket.send(new DatagramPacket(buf, off, len, peer));
+    }
+
+    @Override
+    public void close() {
+    }
+
+  }
+
+  private static class Server extends PSKTlsServer {
+
+    Server() {
+      super(new BcTlsCrypto(new SecureRandom()), new IdentityManager());
+    }
+
+    @Override
+    protected ProtocolVersion[] getSupportedVersions() {
+      return ProtocolVersion.DTLSv12.only();
+    }
+
+    @Override
+    protected int[] getSupportedCipherSuites() {
+      return TlsUtils.getSupportedCipherSuites(
+          getCrypto(),
+          new int[]{CipherSuite.TLS_PSK_WITH_AES_128_GCM_SHA256}
+      );
+    }
+  }
+
+  private static class IdentityManager implements TlsPSKIdentityManager {
+
+    @Override
+    public byte[] getHint() {
+      return null;
+    }
+
+    @Override
+    public byte[] getPSK(byte[] identity) {
+      if (!USERNAME.equals(new String(identity, StandardCharsets.UTF_8))) {
+        return null;
+      }
+      byte[] result = new byte[CLIENT_KEY.length() / 2];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = (byte) Integer.parseInt(CLIENT_KEY.substring(i * 2, i * 2 + 2), 16);
+      }
+      return result;
+    }
+  }
+
+}
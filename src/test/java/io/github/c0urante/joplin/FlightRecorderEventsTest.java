@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import io.github.c0urante.joplin.internal.Serialization;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FlightRecorderEventsTest {
+
+  private static final String FRAME_ENCODE = "io.github.c0urante.joplin.FrameEncode";
+  private static final String FRAME_SEND = "io.github.c0urante.joplin.FrameSend";
+  private static final String STREAM_CONTROL = "io.github.c0urante.joplin.StreamControl";
+
+  private FakeBridge bridge;
+  private HueEntertainmentClient client;
+  private Recording recording;
+
+  @RegisterExtension
+  final ClientFixture fixture = new ClientFixture();
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    bridge = fixture.bridge();
+    recording = fixture.closeAfterTest(new Recording());
+    recording.enable(FRAME_ENCODE).withoutThreshold();
+    recording.enable(FRAME_SEND).withoutThreshold();
+    recording.enable(STREAM_CONTROL).withoutThreshold();
+    recording.start();
+  }
+
+  @Test
+  public void testFrameEvents() throws Exception {
+    client = fixture.client(bridge.clientBuilder().tries(2));
+    client.initializeStream();
+
+    client.sendColors(new Rgb(0xFFFF, 0, 0), new Rgb(0, 0xFFFF, 0), new Rgb(0, 0, 0xFFFF));
+
+    List<RecordedEvent> encodes = events(FRAME_ENCODE);
+    assertEquals(1, encodes.size());
+    assertEquals(3, encodes.get(0).getInt("channels"));
+    assertEquals(Serialization.messageSize(3), encodes.get(0).getInt("bytes"));
+
+    List<RecordedEvent> sends = events(FRAME_SEND);
+    assertEquals(1, sends.size());
+    assertEquals(3, sends.get(0).getInt("channels"));
+    assertEquals(2, sends.get(0).getInt("repeats"));
+    assertEquals(1, sends.get(0).getInt("datagrams"));
+    assertEquals(Serialization.messageSize(3), sends.get(0).getInt("bytes"));
+  }
+
+  @Test
+  public void testStreamControlEvents() throws Exception {
+    client = fixture.client(bridge.clientBuilder());
+    client.initializeStream();
+    client.stopStream();
+
+    List<RecordedEvent> events = events(STREAM_CONTROL);
+    assertEquals(2, events.size());
+    assertStreamControl(events.get(0), "start", 200);
+    assertStreamControl(events.get(1), "stop", 200);
+  }
+
+  @Test
+  public void testFailedPreparationRecordsStartOnce() throws Exception {
+    // Rejected as a malformed IPv6 literal, without any DNS lookup
+    client = fixture.client(bridge.clientBuilder().host("[invalid"));
+
+    assertThrows(IOException.class, client::initializeStream);
+
+    List<String> actions = events(STREAM_CONTROL).stream()
+        .map(event -> event.getString("action") + " " + event.getInt("statusCode"))
+        .sorted()
+        .collect(Collectors.toList());
+    // The stream is stopped again, since the bridge had already started it
+    assertEquals(List.of("start 200", "stop 200"), actions);
+  }
+
+  // Stops the recording, so should only be used once the client is done
+  private List<RecordedEvent> events(String name) throws IOException {
+    if (recording.getState() == RecordingState.RUNNING) {
+      recording.stop();
+    }
+    Path file = Files.createTempFile("joplin", ".jfr");
+    try {
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file).stream()
+          .filter(event -> event.getEventType().getName().equals(name))
+          .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+          .collect(Collectors.toList());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private static void assertStreamControl(RecordedEvent event, String action, int statusCode) {
+    assertEquals(TestClients.ENTERTAINMENT_AREA, event.getString("entertainmentArea"));
+    assertEquals(action, event.getString("action"));
+    assertEquals(statusCode, event.getInt("statusCode"));
+  }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FrameInterpolatorTest {
+
+  private static final long MS = 1_000_000;
+
+  @RegisterExtension
+  final ClientFixture fixture = new ClientFixture();
+
+  @Test
+  public void testFirstKeyframeIsNotInterpolated() {
+    FrameInterpolator interpolator = createInterpolator(InterpolationMode.RGB, Easing.LINEAR);
+
+    interpolator.keyframe(0, new Light(3, new Rgb(0xFFFF, 0, 0)));
+
+    Light[] frame = interpolator.frame(10 * MS);
+    assertEquals(1, frame.length);
+    assertEquals(3, frame[0].channel());
+    assertArrayEquals(new int[] {0xFFFF, 0, 0}, rgb(frame[0]));
+  }
+
+  @Test
+  public void testLinearRgb() {
+    FrameInterpolator interpolator = createInterpolator(InterpolationMode.RGB, Easing.LINEAR);
+
+    interpolator.keyframe(0, new Light(0, new Rgb(0, 0, 0)));
+    interpolator.keyframe(100 * MS, new Light(0, new Rgb(0xFFFF, 0x8000, 0)));
+
+    assertArrayEquals(new int[] {0, 0, 0}, rgb(interpolator.frame(100 * MS)[0]));
+    assertArrayEquals(new int[] {0x8000, 0x4000, 0}, rgb(interpolator.frame(150 * MS)[0]));
+    assertArrayEquals(new int[] {0xFFFF, 0x8000, 0}, rgb(interpolator.frame(200 * MS)[0]));
+    assertArrayEquals(new int[] {0xFFFF, 0x8000, 0}, rgb(interpolator.frame(500 * MS)[0]));
+  }
+
+  @Test
+  public void testEarlyKeyframeStartsFromCurrentColor() {
+    FrameInterpolator interpolator = createInterpolator(InterpolationMode.RGB, Easing.LINEAR);
+
+    interpolator.keyframe(0, new Light(0, new Rgb(0, 0, 0)));
+    interpolator.keyframe(100 * MS, new Light(0, new Rgb(0xFFFF, 0, 0)));
+    // Halfway through the transition, retarget to blue
+    interpolator.keyframe(150 * MS, new Light(0, new Rgb(0, 0, 0xFFFF)));
+
+    assertArrayEquals(new int[] {0x8000, 0, 0}, rgb(interpolator.frame(150 * MS)[0]));
+    assertArrayEquals(new int[] {0, 0, 0xFFFF}, rgb(interpolator.frame(200 * MS)[0]));
+  }
+
+  @Test
+  public void testEasing() {
+    FrameInterpolator interpolator = createInterpolator(InterpolationMode.RGB, Easing.EASE_IN);
+
+    interpolator.keyframe(0, new Light(0, new Rgb(0, 0, 0)));
+    interpolator.keyframe(100 * MS, new Light(0, new Rgb(0xFFFF, 0xFFFF, 0xFFFF)));
+
+    int quarter = Math.round(0xFFFF / 4f);
+    assertArrayEquals(new int[] {quarter, quarter, quarter}, rgb(interpolator.frame(150 * MS)[0]));
+  }
+
+  @Test
+  public void testXyPreservesEndpoints() {
+    FrameInterpolator interpolator = createInterpolator(InterpolationMode.XY, Easing.LINEAR);
+
+    interpolator.keyframe(0, new Light(0, new Rgb(0xFFFF, 0, 0)));
+    interpolator.keyframe(100 * MS, new Light(0, new Rgb(0, 0xFFFF, 0)));
+
+    assertClose(new int[] {0xFFFF, 0, 0}, rgb(interpolator.frame(100 * MS)[0]));
+    assertClose(new int[] {0, 0xFFFF, 0}, rgb(interpolator.frame(200 * MS)[0]));
+
+    // Red to green in xy should stay brighter than the muddy RGB midpoint
+    int[] midpoint = rgb(interpolator.frame(150 * MS)[0]);
+    assertTrue(Math.max(midpoint[0], midpoint[1]) > 0x8000);
+    assertEquals(0, midpoint[2], 0x100);
+  }
+
+  @Test
+  public void testSendsFrames() throws Exception {
+    FakeBridge bridge = fixture.bridge();
+    HueEntertainmentClient client = fixture.streamingClient();
+
+    try (FrameInterpolator interpolator = FrameInterpolator.builder(client).frameRate(200).build()) {
+      interpolator.start();
+      interpolator.keyframe(new Rgb(0xFFFF, 0, 0), new Rgb(0, 0, 0xFFFF));
+
+      // Frames keep being sent, even without new keyframes
+      for (int i = 0; i < 3; i++) {
+        FakeBridge.Frame frame = bridge.nextFrame();
+        assertNotNull(frame);
+        assertEquals(2, frame.numLights());
+        assertEquals(0xFFFF, frame.component(0, 0));
+        assertEquals(1, frame.channel(1));
+        assertEquals(0xFFFF, frame.component(1, 2));
+      }
+    }
+  }
+
+  private static void assertClose(int[] expected, int[] actual) {
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], actual[i], 0x100);
+    }
+  }
+
+  private static int[] rgb(Light light) {
+    ByteBuffer buffer = ByteBuffer.allocate(6);
+    light.color().serializeTo(buffer);
+    return new int[] {
+        buffer.getShort(0) & 0xFFFF,
+        buffer.getShort(2) & 0xFFFF,
+        buffer.getShort(4) & 0xFFFF
+    };
+  }
+
+  private FrameInterpolator createInterpolator(InterpolationMode mode, Easing easing) {
+    HueEntertainmentClient client = fixture.offlineClient();
+    return FrameInterpolator.builder(client)
+        .mode(mode)
+        .easing(easing)
+        .build();
+  }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FrameSubscriberTest {
+
+  @RegisterExtension
+  final ClientFixture fixture = new ClientFixture();
+
+  @Test
+  public void testConflateKeepsLatestFrame() {
+    FrameSubscriber subscriber = createSubscriber(OverflowPolicy.CONFLATE, 8);
+
+    subscriber.onNext(frame(0));
+    subscriber.onNext(frame(1));
+    subscriber.onNext(frame(2));
+
+    assertEquals(1, subscriber.queueDepth());
+    assertEquals(3, subscriber.framesReceived());
+    assertEquals(2, subscriber.framesDropped());
+  }
+
+  @Test
+  public void testDropOldestBoundsQueue() {
+    FrameSubscriber subscriber = createSubscriber(OverflowPolicy.DROP_OLDEST, 2);
+
+    for (int i = 0; i < 5; i++) {
+      subscriber.onNext(frame(i));
+    }
+
+    assertEquals(2, subscriber.queueDepth());
+    assertEquals(3, subscriber.framesDropped());
+  }
+
+  @Test
+  public void testBufferRequestsOnlyWhatFits() throws Exception {
+    FrameSubscriber subscriber = createSubscriber(OverflowPolicy.BUFFER, 4);
+    RecordingSubscription subscription = new RecordingSubscription();
+
+    subscriber.onSubscribe(subscription);
+    assertEquals(4, subscription.requested.get());
+
+    subscriber.close();
+    assertTrue(subscription.cancelled.get());
+  }
+
+  @Test
+  public void testUnboundedDemandWhenNotBuffering() throws Exception {
+    FrameSubscriber subscriber = createSubscriber(OverflowPolicy.CONFLATE, 4);
+    RecordingSubscription subscription = new RecordingSubscription();
+
+    subscriber.onSubscribe(subscription);
+    assertEquals(Long.MAX_VALUE, subscription.requested.get());
+
+    subscriber.close();
+  }
+
+  @Test
+  public void testSendsPublishedFrames() throws Exception {
+    FakeBridge bridge = fixture.bridge();
+    HueEntertainmentClient client = fixture.streamingClient();
+    FrameSubscriber subscriber = FrameSubscriber.builder(client)
+        .frameRate(200)
+        .overflowPolicy(OverflowPolicy.BUFFER)
+        .bufferSize(2)
+        .build();
+
+    try (SubmissionPublisher<List<Light>> publisher = new SubmissionPublisher<>()) {
+      publisher.subscribe(subscriber);
+      for (int i = 0; i < 5; i++) {
+        publisher.submit(frame(i));
+      }
+    }
+
+    // Buffered frames are held to the frame rate instead of being dropped
+    for (int i = 0; i < 5; i++) {
+      FakeBridge.Frame frame = bridge.nextFrame();
+      assertNotNull(frame);
+      assertEquals(i, frame.channel(0));
+    }
+    assertEquals(0, subscriber.framesDropped());
+    assertNull(subscriber.error());
+    subscriber.close();
+  }
+
+  private static List<Light> frame(int channel) {
+    return Collections.singletonList(new Light(channel, new Rgb(0xFFFF, 0, 0)));
+  }
+
+  private FrameSubscriber createSubscriber(OverflowPolicy overflowPolicy, int bufferSize) {
+    return fixture.offlineClient().subscriber(overflowPolicy, bufferSize);
+  }
+
+  private static class RecordingSubscription implements Flow.Subscription {
+    final AtomicLong requested = new AtomicLong();
+    final AtomicBoolean cancelled = new AtomicBoolean();
+
+    @Override
+    public void request(long n) {
+      requested.addAndGet(n);
+    }
+
+    @Override
+    public void cancel() {
+      cancelled.set(true);
+    }
+  }
+
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HueEntertainmentClientStreamTest {
+
+  private FakeBridge bridge;
+  private HueEntertainmentClient client;
+
+  @RegisterExtension
+  final ClientFixture fixture = new ClientFixture();
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    bridge = fixture.bridge();
+  }
+
+  @Test
+  public void testSendLights() throws Exception {
+    client = fixture.client(bridge.clientBuilder());
+    client.initializeStream();
+    assertEquals(Collections.singletonList("start " + TestClients.ENTERTAINMENT_AREA), bridge.requests());
+
+    client.sendLights(new Light(3, new Rgb(0xFFFF, 0x1234, 0)), new Light(7, new Rgb(0, 0, 0xABCD)));
+
+    FakeBridge.Frame frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(TestClients.ENTERTAINMENT_AREA, frame.entertainmentArea());
+    assertEquals(2, frame.numLights());
+    assertEquals(3, frame.channel(0));
+    assertEquals(0xFFFF, frame.component(0, 0));
+    assertEquals(0x1234, frame.component(0, 1));
+    assertEquals(7, frame.channel(1));
+    assertEquals(0xABCD, frame.component(1, 2));
+    assertEquals(1, client.metrics().framesSent());
+  }
+
+  @Test
+  public void testSendEncodedLights() throws Exception {
+    client = fixture.client(bridge.clientBuilder());
+    client.initializeStream();
+
+    ByteBuffer encoded = ByteBuffer.allocate(14);
+    new Light(0, new Rgb(0x0102, 0x0304, 0x0506)).serializeTo(encoded);
+    new Light(1, new Rgb(0x0708, 0x090A, 0x0B0C)).serializeTo(encoded);
+    encoded.flip();
+    client.sendEncodedLights(encoded.duplicate());
+
+    FakeBridge.Frame frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(encoded, frame.lights());
+  }
+
+  @Test
+  public void testRepeatsFrames() throws Exception {
+    client = fixture.client(bridge.clientBuilder().tries(3));
+    client.initializeStream();
+
+    client.sendColors(new Rgb(0xFFFF, 0, 0));
+    client.sendColors(new Rgb(0, 0xFFFF, 0));
+
+    byte[] sequences = new byte[6];
+    for (int i = 0; i < sequences.length; i++) {
+      FakeBridge.Frame frame = bridge.nextFrame();
+      assertNotNull(frame);
+      sequences[i] = frame.sequence();
+      assertEquals(i < 3 ? 0xFFFF : 0, frame.component(0, 0));
+    }
+    // Copies of a frame share its sequence number, which advances between frames
+    assertEquals(sequences[0], sequences[2]);
+    assertEquals((byte) (sequences[0] + 1), sequences[3]);
+    assertEquals(sequences[3], sequences[5]);
+  }
+
+  @Test
+  public void testSplitsLargeFrames() throws Exception {
+    client = fixture.client(bridge.clientBuilder());
+    client.initializeStream();
+
+    HueColor[] colors = new HueColor[25];
+    Arrays.fill(colors, new Rgb(0x8000, 0x8000, 0x8000));
+    client.sendColors(colors);
+
+    FakeBridge.Frame first = bridge.nextFrame();
+    FakeBridge.Frame second = bridge.nextFrame();
+    assertNotNull(first);
+    assertNotNull(second);
+    assertEquals(20, first.numLights());
+    assertEquals(5, second.numLights());
+    assertEquals(20, second.channel(0));
+    assertEquals(first.sequence(), second.sequence());
+  }
+
+  @Test
+  public void testRateLimitedFrameIsSentLater() throws Exception {
+    client = fixture.client(bridge.clientBuilder().adaptiveFrameRate(1, 2));
+    client.initializeStream();
+
+    client.sendColors(new Rgb(0xFFFF, 0, 0));
+    client.sendColors(new Rgb(0, 0xFFFF, 0));
+    client.sendColors(new Rgb(0, 0, 0xFFFF));
+
+    FakeBridge.Frame frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(0xFFFF, frame.component(0, 0));
+    // The last frame of the burst goes out once the frame rate allows; the one before it is skipped
+    frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(0xFFFF, frame.component(0, 2));
+    assertEquals(1, client.metrics().framesSkipped());
+    // Recorded by the sending thread just after the frame goes out
+    waitUntil(() -> client.metrics().framesSent() == 2);
+    assertNull(bridge.pollFrame());
+  }
+
+  @Test
+  public void testRateLimitedFrameFailureIsThrownLater() throws Exception {
+    client = fixture.client(bridge.clientBuilder().adaptiveFrameRate(2, 2));
+    client.initializeStream();
+    client.sendColors(new Rgb(0xFFFF, 0, 0));
+    assertNotNull(bridge.nextFrame());
+
+    bridge.suspendDtls();
+    // Still goes out, but the bridge's socket is gone, so the next send fails
+    client.sendColors(new Rgb(0, 0xFFFF, 0));
+    waitUntil(() -> client.metrics().framesSent() == 2);
+    client.sendColors(new Rgb(0, 0, 0xFFFF));
+    waitUntil(() -> client.metrics().sendFailures() == 1);
+
+    assertThrows(IOException.class, () -> client.sendColors(new Rgb(0, 0, 0)));
+    // Only thrown once
+    assertEquals(1, client.metrics().sendFailures());
+  }
+
+  @Test
+  public void testConfigurationIsRevalidated() throws Exception {
+    client = fixture.client(bridge.clientBuilder().configurationTtl(Duration.ZERO));
+
+    EntertainmentConfiguration configuration = client.entertainmentConfiguration();
+    assertEquals(0, bridge.notModified());
+
+    // The configuration, entertainment services, and lights are each only asked about
+    assertEquals(configuration.id(), client.entertainmentConfiguration().id());
+    assertEquals(3, bridge.notModified());
+    assertEquals(6, bridge.requests().size());
+  }
+
+  @Test
+  public void testConfigurationIsCachedPerBridge() throws Exception {
+    client = fixture.client(bridge.clientBuilder());
+    client.entertainmentConfiguration();
+    int requests = bridge.requests().size();
+
+    // Shares its host with the first bridge
+    FakeBridge other = fixture.closeAfterTest(FakeBridge.start());
+    HueEntertainmentClient otherClient = fixture.client(other.clientBuilder());
+    otherClient.entertainmentConfiguration();
+    otherClient.entertainmentConfiguration();
+
+    assertEquals(3, other.requests().size());
+    assertEquals(requests, bridge.requests().size());
+  }
+
+  @Test
+  public void testStopStream() throws Exception {
+    client = fixture.client(bridge.clientBuilder());
+    client.initializeStream();
+    client.stopStream();
+
+    assertTrue(bridge.awaitRequest("stop " + TestClients.ENTERTAINMENT_AREA));
+    assertThrows(IllegalStateException.class, () -> client.sendColors(new Rgb(0, 0, 0)));
+    assertNull(bridge.pollFrame());
+  }
+
+  @Test
+  public void testLazyStart() throws Exception {
+    client = fixture.client(bridge.clientBuilder().lazyStart(true));
+
+    client.sendColors(new Rgb(0xFFFF, 0xFFFF, 0xFFFF));
+
+    assertEquals(Collections.singletonList("start " + TestClients.ENTERTAINMENT_AREA), bridge.requests());
+    FakeBridge.Frame frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(0xFFFF, frame.component(0, 0));
+  }
+
+  @Test
+  public void testLazyStartDoesNotBlockOtherSenders() throws Exception {
+    bridge.holdStarts();
+    client = fixture.client(bridge.clientBuilder().lazyStart(true));
+
+    CompletableFuture<Void> started = CompletableFuture.runAsync(() -> {
+      try {
+        client.sendColors(new Rgb(0xFFFF, 0, 0));
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    });
+    assertTrue(bridge.awaitRequest("start " + TestClients.ENTERTAINMENT_AREA));
+
+    // Dropped right away instead of waiting for (or repeating) the start in flight
+    client.sendColors(new Rgb(0, 0xFFFF, 0));
+    assertEquals(1, client.metrics().framesDropped());
+    assertFalse(started.isDone());
+
+    bridge.releaseStarts();
+    started.get(5, TimeUnit.SECONDS);
+    FakeBridge.Frame frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(0xFFFF, frame.component(0, 0));
+    assertEquals(Collections.singletonList("start " + TestClients.ENTERTAINMENT_AREA), bridge.requests());
+  }
+
+  @Test
+  public void testInterruptedLazyStartIsNotASendFailure() throws Exception {
+    bridge.holdStarts();
+    client = fixture.client(bridge.clientBuilder().lazyStart(true));
+
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    AtomicBoolean interrupted = new AtomicBoolean();
+    Thread sender = new Thread(() -> {
+      try {
+        client.sendColors(new Rgb(0xFFFF, 0, 0));
+        interrupted.set(Thread.currentThread().isInterrupted());
+      } catch (IOException | RuntimeException e) {
+        failure.set(e);
+      }
+    });
+    sender.start();
+    assertTrue(bridge.awaitRequest("start " + TestClients.ENTERTAINMENT_AREA));
+    sender.interrupt();
+    sender.join(5_000);
+    bridge.releaseStarts();
+
+    assertNull(failure.get());
+    assertTrue(interrupted.get());
+    assertEquals(1, client.metrics().framesDropped());
+    assertEquals(0, client.metrics().sendFailures());
+    assertEquals(0, client.drainSendFailures(f -> { }));
+  }
+
+  @Test
+  public void testFailedLazyStartIsRetried() throws Exception {
+    bridge.startStatus(503);
+    client = fixture.client(bridge.clientBuilder()
+        .lazyStart(true)
+        .sendFailurePolicy(SendFailurePolicy.RECONNECT));
+
+    client.sendColors(new Rgb(0xFFFF, 0xFFFF, 0xFFFF));
+    assertEquals(1, client.metrics().sendFailures());
+    assertEquals(1, startRequests());
+    assertEquals(1, client.drainSendFailures(failure -> {
+      assertNotNull(failure.cause());
+      assertEquals(1, failure.consecutiveFailures());
+    }));
+
+    bridge.startStatus(200);
+    sendUntil(() -> client.metrics().framesSent() > 0);
+
+    // Nothing was streaming yet, so this was still a lazy start rather than a reconnect
+    assertEquals(0, client.metrics().reconnects());
+    assertEquals(2, startRequests());
+    assertNotNull(bridge.nextFrame());
+  }
+
+  @Test
+  public void testPreparedStart() throws Exception {
+    client = fixture.client(bridge.clientBuilder());
+    client.initializeStream(client.prepareDtls());
+
+    client.sendColors(new Rgb(0, 0, 0xFFFF));
+
+    FakeBridge.Frame frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(0xFFFF, frame.component(0, 2));
+    assertEquals(1, bridge.handshakes());
+  }
+
+  @Test
+  public void testPreparesWhileStarting() throws Exception {
+    bridge.holdStarts();
+    client = fixture.client(bridge.clientBuilder());
+
+    CompletableFuture<Void> initialized = CompletableFuture.runAsync(() -> {
+      try {
+        client.initializeStream();
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    });
+    assertTrue(bridge.awaitRequest("start " + TestClients.ENTERTAINMENT_AREA));
+    // No handshake can be attempted until the bridge has acknowledged the start
+    assertFalse(initialized.isDone());
+    assertEquals(0, bridge.handshakes());
+
+    bridge.releaseStarts();
+    initialized.get(5, TimeUnit.SECONDS);
+    client.sendColors(new Rgb(0, 0, 0));
+    assertNotNull(bridge.nextFrame());
+  }
+
+  @Test
+  public void testFailedPreparationStopsStream() throws Exception {
+    bridge.holdStarts();
+    // Rejected as a malformed IPv6 literal, without any DNS lookup
+    client = fixture.client(bridge.clientBuilder().host("[invalid"));
+
+    CompletableFuture<Void> initialized = CompletableFuture.runAsync(() -> {
+      try {
+        client.initializeStream();
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    });
+    assertTrue(bridge.awaitRequest("start " + TestClients.ENTERTAINMENT_AREA));
+    bridge.releaseStarts();
+
+    ExecutionException e = assertThrows(ExecutionException.class, () -> initialized.get(5, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof IOException, e.getCause().toString());
+    // The start had already gone out, so the stream is stopped again
+    assertTrue(bridge.awaitRequest("stop " + TestClients.ENTERTAINMENT_AREA));
+    assertEquals(
+        Arrays.asList("start " + TestClients.ENTERTAINMENT_AREA, "stop " + TestClients.ENTERTAINMENT_AREA),
+        bridge.requests()
+    );
+  }
+
+  @Test
+  public void testFailedHandshakeStopsStream() throws Exception {
+    bridge.ignoreHandshakes(true);
+    client = fixture.client(bridge.clientBuilder().handshakeTimeout(Duration.ofMillis(200)));
+
+    assertThrows(IOException.class, client::initializeStream);
+
+    assertTrue(bridge.awaitRequest("stop " + TestClients.ENTERTAINMENT_AREA));
+    assertThrows(IllegalStateException.class, () -> client.sendColors(new Rgb(0, 0, 0)));
+  }
+
+  @Test
+  public void testFailedStartDoesNotStopStream() throws Exception {
+    bridge.startStatus(503);
+    client = fixture.client(bridge.clientBuilder().host("[invalid"));
+
+    assertThrows(IOException.class, client::initializeStream);
+    assertEquals(Collections.singletonList("start " + TestClients.ENTERTAINMENT_AREA), bridge.requests());
+  }
+
+  @Test
+  public void testReconnectRestartsStream() throws Exception {
+    client = fixture.client(bridge.clientBuilder().sendFailurePolicy(SendFailurePolicy.RECONNECT));
+    client.initializeStream();
+    client.sendColors(new Rgb(0xFFFF, 0, 0));
+    assertNotNull(bridge.nextFrame());
+
+    bridge.suspendDtls();
+    sendUntil(() -> client.metrics().sendFailures() > 0);
+
+    // Frames are dropped instead of reconnecting right away; the failed one counts as dropped too
+    client.sendColors(new Rgb(0xFFFF, 0, 0));
+    assertEquals(2, client.metrics().framesDropped());
+    assertEquals(1, startRequests());
+
+    bridge.resumeDtls();
+    sendUntil(() -> client.metrics().reconnects() > 0);
+
+    // The stream is started over via the REST API before the new handshake
+    assertEquals(2, startRequests());
+    assertEquals(2, bridge.handshakes());
+    // The frame that triggered the reconnect is sent once it completes
+    FakeBridge.Frame frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(0, frame.component(0, 1));
+    client.sendColors(new Rgb(0, 0xFFFF, 0));
+    frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(0xFFFF, frame.component(0, 1));
+  }
+
+  @Test
+  public void testFailedReconnectsBackOff() throws Exception {
+    client = fixture.client(bridge.clientBuilder().sendFailurePolicy(SendFailurePolicy.RECONNECT));
+    client.initializeStream();
+    bridge.suspendDtls();
+    bridge.startStatus(503);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    while (System.nanoTime() - deadline < 0) {
+      client.sendColors(new Rgb(0, 0, 0));
+      Thread.sleep(1);
+    }
+
+    // Back-off starts at 100ms and doubles after each failed attempt
+    int attempts = startRequests() - 1;
+    assertTrue(attempts >= 1 && attempts <= 4, attempts + " attempts to restart the stream");
+    assertEquals(0, client.metrics().reconnects());
+    assertTrue(client.metrics().framesDropped() > attempts);
+  }
+
+  @Test
+  public void testHandshakeTimeout() throws Exception {
+    bridge.ignoreHandshakes(true);
+    client = fixture.client(bridge.clientBuilder().handshakeTimeout(Duration.ofMillis(200)));
+
+    long start = System.nanoTime();
+    assertThrows(IOException.class, client::initializeStream);
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+  }
+
+  @Test
+  public void testClosedClientDoesNotRestartStream() throws Exception {
+    client = fixture.client(bridge.clientBuilder().lazyStart(true));
+    client.close();
+
+    assertThrows(IllegalStateException.class, () -> client.sendColors(new Rgb(0, 0, 0)));
+    assertEquals(Collections.emptyList(), bridge.requests());
+  }
+
+  @Test
+  public void testFailedStart() throws Exception {
+    bridge.startStatus(503);
+    client = fixture.client(bridge.clientBuilder());
+
+    assertThrows(IOException.class, client::initializeStream);
+    assertThrows(IllegalStateException.class, () -> client.sendColors(new Rgb(0, 0, 0)));
+  }
+
+  private int startRequests() {
+    return Collections.frequency(bridge.requests(), "start " + TestClients.ENTERTAINMENT_AREA);
+  }
+
+  // Keep sending frames, as an application would, until a condition holds
+  private void sendUntil(Condition condition) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.holds()) {
+      assertTrue(System.nanoTime() - deadline < 0, "Timed out");
+      client.sendColors(new Rgb(0, 0, 0));
+      Thread.sleep(5);
+    }
+  }
+
+  private static void waitUntil(Condition condition) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.holds()) {
+      assertTrue(System.nanoTime() - deadline < 0, "Timed out");
+      Thread.sleep(1);
+    }
+  }
+
+  private interface Condition {
+    boolean holds() throws Exception;
+  }
+
+}
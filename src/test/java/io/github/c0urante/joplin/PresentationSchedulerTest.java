@@ -0,0 +1,248 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PresentationSchedulerTest {
+
+  private static final long MS = 1_000_000;
+
+  private final List<long[]> lateFrames = new ArrayList<>();
+
+  @RegisterExtension
+  final ClientFixture fixture = new ClientFixture();
+
+  @Test
+  public void testFramesAreHeldUntilDueInPresentationOrder() {
+    PresentationScheduler scheduler = createScheduler(Duration.ZERO);
+    Light[] first = frame();
+    Light[] second = frame();
+
+    scheduler.enqueue(200 * MS, second);
+    scheduler.enqueue(100 * MS, first);
+
+    assertNull(scheduler.poll(99 * MS));
+    assertSame(first, scheduler.poll(100 * MS));
+    assertNull(scheduler.poll(150 * MS));
+    assertSame(second, scheduler.poll(205 * MS));
+    assertEquals(0, scheduler.queueDepth());
+    assertEquals(0, scheduler.framesLate());
+  }
+
+  @Test
+  public void testOutputLatencyIsSubtracted() {
+    PresentationScheduler scheduler = createScheduler(Duration.ofMillis(30));
+    Light[] frame = frame();
+
+    scheduler.enqueue(100 * MS, frame);
+
+    assertNull(scheduler.poll(69 * MS));
+    assertSame(frame, scheduler.poll(70 * MS));
+  }
+
+  @Test
+  public void testLateFramesAreDroppedAndReported() {
+    PresentationScheduler scheduler = createScheduler(Duration.ZERO);
+
+    scheduler.enqueue(100 * MS, frame());
+    assertNull(scheduler.poll(150 * MS));
+
+    assertEquals(1, scheduler.framesLate());
+    assertEquals(50 * MS, scheduler.lastLatenessNanos());
+    assertEquals(1, lateFrames.size());
+    assertEquals(100 * MS, lateFrames.get(0)[0]);
+    assertEquals(50 * MS, lateFrames.get(0)[1]);
+  }
+
+  @Test
+  public void testSupersededFramesAreDropped() {
+    PresentationScheduler scheduler = createScheduler(Duration.ZERO);
+    Light[] newest = frame();
+
+    scheduler.enqueue(100 * MS, frame());
+    scheduler.enqueue(105 * MS, frame());
+    scheduler.enqueue(110 * MS, newest);
+
+    assertSame(newest, scheduler.poll(115 * MS));
+    assertEquals(2, scheduler.framesSuperseded());
+    assertEquals(0, scheduler.framesLate());
+    assertTrue(lateFrames.isEmpty());
+  }
+
+  @Test
+  public void testSupersededFramesBeyondToleranceAreLate() {
+    PresentationScheduler scheduler = createScheduler(Duration.ZERO);
+    Light[] newest = frame();
+
+    scheduler.enqueue(100 * MS, frame());
+    scheduler.enqueue(130 * MS, newest);
+
+    assertSame(newest, scheduler.poll(135 * MS));
+    assertEquals(0, scheduler.framesSuperseded());
+    assertEquals(1, scheduler.framesLate());
+    assertEquals(35 * MS, scheduler.maxLatenessNanos());
+  }
+
+  @Test
+  public void testListenerRunsWithoutLockHeld() {
+    AtomicReference<PresentationScheduler> scheduler = new AtomicReference<>();
+    AtomicBoolean queueAccessible = new AtomicBoolean();
+    scheduler.set(createScheduler(Duration.ZERO, (presentationTimeNanos, latenessNanos) -> {
+      // Another thread must be able to use the scheduler while the listener runs
+      Thread other = new Thread(() -> {
+        scheduler.get().queueDepth();
+        queueAccessible.set(true);
+      });
+      other.setDaemon(true);
+      other.start();
+      try {
+        other.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+
+    scheduler.get().enqueue(100 * MS, frame());
+    assertNull(scheduler.get().poll(150 * MS));
+    assertTrue(queueAccessible.get());
+  }
+
+  @Test
+  public void testThrowingListenerIsIgnored() {
+    PresentationScheduler scheduler = createScheduler(Duration.ZERO, (presentationTimeNanos, latenessNanos) -> {
+      throw new IllegalStateException("listener failure");
+    });
+    Light[] onTime = frame();
+
+    scheduler.enqueue(100 * MS, frame());
+    assertNull(scheduler.poll(150 * MS));
+    scheduler.enqueue(200 * MS, onTime);
+    assertSame(onTime, scheduler.poll(200 * MS));
+    assertEquals(1, scheduler.framesLate());
+  }
+
+  @Test
+  public void testRuntimeFailureStopsScheduler() throws Exception {
+    PresentationScheduler scheduler = createScheduler(Duration.ZERO);
+    scheduler.start();
+
+    // The client's stream was never initialized, so sending throws IllegalStateException
+    scheduler.schedule(System.nanoTime(), frame());
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (scheduler.failure() == null && System.nanoTime() - deadline < 0) {
+      Thread.sleep(1);
+    }
+    scheduler.close();
+
+    assertInstanceOf(IllegalStateException.class, scheduler.failure());
+  }
+
+  @Test
+  public void testSendsFramesWhenDue() throws Exception {
+    FakeBridge bridge = fixture.bridge();
+    HueEntertainmentClient client = fixture.streamingClient();
+    AtomicLong mediaTime = new AtomicLong();
+
+    PresentationScheduler scheduler = PresentationScheduler.builder(client)
+        .clock(mediaTime::get)
+        .outputLatency(Duration.ofMillis(10))
+        .build();
+    try {
+      scheduler.start();
+      scheduler.schedule(200 * MS, new Light(2, new Rgb(0, 0, 0xFFFF)));
+      scheduler.schedule(100 * MS, new Light(1, new Rgb(0xFFFF, 0, 0)));
+      assertNull(bridge.pollFrame());
+
+      // Sent once the clock reaches the presentation time, less the output latency
+      mediaTime.set(90 * MS);
+      FakeBridge.Frame first = bridge.nextFrame();
+      assertNotNull(first);
+      assertEquals(1, first.channel(0));
+
+      mediaTime.set(190 * MS);
+      FakeBridge.Frame second = bridge.nextFrame();
+      assertNotNull(second);
+      assertEquals(2, second.channel(0));
+    } finally {
+      scheduler.close();
+    }
+    assertEquals(2, scheduler.framesPresented());
+    assertEquals(0, scheduler.framesLate());
+  }
+
+  @Test
+  public void testDueFramesBypassAdaptiveRateControl() throws Exception {
+    FakeBridge bridge = fixture.bridge();
+    HueEntertainmentClient client = fixture.streamingClient(bridge.clientBuilder().adaptiveFrameRate(1, 1));
+    AtomicLong mediaTime = new AtomicLong();
+
+    PresentationScheduler scheduler = PresentationScheduler.builder(client)
+        .clock(mediaTime::get)
+        .build();
+    try {
+      scheduler.start();
+      long start = System.nanoTime();
+      for (int i = 1; i <= 3; i++) {
+        scheduler.schedule(i * 100 * MS, new Light(i, new Rgb(0xFFFF, 0, 0)));
+        mediaTime.set(i * 100 * MS);
+        FakeBridge.Frame frame = bridge.nextFrame();
+        assertNotNull(frame);
+        assertEquals(i, frame.channel(0));
+      }
+      // At one frame per second, rate control would have held back the later frames
+      assertTrue(System.nanoTime() - start < 1_000 * MS);
+    } finally {
+      scheduler.close();
+    }
+    assertEquals(3, scheduler.framesPresented());
+  }
+
+  private static Light[] frame() {
+    return new Light[] {new Light(0, new Rgb(0xFFFF, 0xFFFF, 0xFFFF))};
+  }
+
+  private PresentationScheduler createScheduler(Duration outputLatency) {
+    return createScheduler(outputLatency, (presentationTimeNanos, latenessNanos) ->
+        lateFrames.add(new long[] {presentationTimeNanos, latenessNanos}));
+  }
+
+  private PresentationScheduler createScheduler(Duration outputLatency, LateFrameListener listener) {
+    HueEntertainmentClient client = fixture.offlineClient();
+    return PresentationScheduler.builder(client)
+        .outputLatency(outputLatency)
+        .lateTolerance(Duration.ofMillis(20))
+        .lateFrameListener(listener)
+        .build();
+  }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PriorityLanesTest {
+
+  private static final HueColor AMBIENT = new Rgb(0, 0, 0xFFFF);
+  private static final HueColor ALERT = new Rgb(0xFFFF, 0, 0);
+
+  @RegisterExtension
+  final ClientFixture fixture = new ClientFixture();
+
+  @Test
+  public void testHigherLaneOverridesOnlyChannelsItTouches() {
+    PriorityLanes lanes = createLanes(2);
+    long[] cued = new long[2];
+
+    lanes.submit(10, 0, new Light(0, AMBIENT), new Light(1, AMBIENT), new Light(2, AMBIENT));
+    lanes.submit(20, 1, new Light(1, ALERT));
+
+    Light[] frame = lanes.frame(cued);
+    assertEquals(3, frame.length);
+    assertSame(AMBIENT, frame[0].color());
+    assertSame(ALERT, frame[1].color());
+    assertSame(AMBIENT, frame[2].color());
+  }
+
+  @Test
+  public void testClearingLaneRevealsLowerLanes() {
+    PriorityLanes lanes = createLanes(2);
+    long[] cued = new long[2];
+
+    lanes.submit(10, 0, new Light(0, AMBIENT));
+    lanes.submit(20, 1, new Light(0, ALERT), new Light(5, ALERT));
+    lanes.clear(30, 1);
+
+    Light[] frame = lanes.frame(cued);
+    assertEquals(1, frame.length);
+    assertSame(AMBIENT, frame[0].color());
+  }
+
+  @Test
+  public void testFrameReportsOldestPendingSubmission() {
+    PriorityLanes lanes = createLanes(3);
+    long[] cued = new long[3];
+
+    lanes.submit(11, 0, new Light(0, AMBIENT));
+    lanes.submit(21, 2, new Light(0, ALERT));
+    lanes.submit(31, 2, new Light(1, ALERT));
+
+    lanes.frame(cued);
+    assertArrayEquals(new long[] {11, 0, 21}, cued);
+
+    // Nothing new has been submitted since the last frame
+    lanes.frame(cued);
+    assertArrayEquals(new long[] {0, 0, 0}, cued);
+  }
+
+  @Test
+  public void testInvalidLane() {
+    PriorityLanes lanes = createLanes(2);
+
+    assertThrows(IllegalArgumentException.class, () -> lanes.submit(0, 2, new Light(0, ALERT)));
+    assertThrows(IllegalArgumentException.class, () -> lanes.metrics(-1));
+  }
+
+  @Test
+  public void testUrgentSubmissionIsSentWithoutWaitingForNextTick() throws Exception {
+    FakeBridge bridge = fixture.bridge();
+    HueEntertainmentClient client = fixture.streamingClient();
+
+    PriorityLanes lanes = PriorityLanes.builder(client).frameRate(1).build();
+    try {
+      lanes.submit(0, AMBIENT, AMBIENT);
+      lanes.start();
+      FakeBridge.Frame ambient = bridge.nextFrame();
+      assertNotNull(ambient);
+      assertEquals(0xFFFF, ambient.component(0, 2));
+
+      long submitted = System.nanoTime();
+      lanes.submit(1, new Light(1, ALERT));
+      FakeBridge.Frame alert = bridge.nextFrame();
+      long received = System.nanoTime();
+      assertNotNull(alert);
+      assertEquals(2, alert.numLights());
+      assertEquals(0xFFFF, alert.component(0, 2));
+      assertEquals(0xFFFF, alert.component(1, 0));
+      // Well before the next tick, a second after the first
+      assertTrue(received - submitted < TimeUnit.MILLISECONDS.toNanos(500));
+    } finally {
+      lanes.close();
+    }
+    assertEquals(1, lanes.metrics(1).cues());
+  }
+
+  @Test
+  public void testUrgentSubmissionBypassesAdaptiveFrameRate() throws Exception {
+    FakeBridge bridge = fixture.bridge();
+    HueEntertainmentClient client = fixture.streamingClient(bridge.clientBuilder().adaptiveFrameRate(1, 1));
+
+    PriorityLanes lanes = PriorityLanes.builder(client).frameRate(1).build();
+    try {
+      lanes.submit(0, AMBIENT);
+      lanes.start();
+      assertNotNull(bridge.nextFrame());
+
+      long submitted = System.nanoTime();
+      lanes.submit(1, ALERT);
+      FakeBridge.Frame alert = bridge.nextFrame();
+      long received = System.nanoTime();
+      assertNotNull(alert);
+      assertEquals(0xFFFF, alert.component(0, 0));
+      // The client would otherwise hold it back until a second after the first frame
+      assertTrue(received - submitted < TimeUnit.MILLISECONDS.toNanos(500));
+    } finally {
+      lanes.close();
+    }
+  }
+
+  private PriorityLanes createLanes(int numLanes) {
+    HueEntertainmentClient client = fixture.offlineClient();
+    return PriorityLanes.builder(client)
+        .lanes(numLanes)
+        .build();
+  }
+
+}
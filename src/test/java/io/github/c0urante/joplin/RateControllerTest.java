@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RateControllerTest {
+
+  private static final long MS = 1_000_000;
+
+  @Test
+  public void testAdmitsAtMaxFrameRate() {
+    StreamMetrics metrics = new StreamMetrics();
+    RateController controller = new RateController(10, 50, 3, metrics);
+    long now = System.nanoTime();
+
+    assertTrue(controller.admit(now));
+    assertFalse(controller.admit(now + 10 * MS));
+    assertTrue(controller.admit(now + 20 * MS));
+    // A slightly late frame followed by a slightly early one should both go out
+    assertTrue(controller.admit(now + 45 * MS));
+    assertTrue(controller.admit(now + 60 * MS));
+  }
+
+  @Test
+  public void testBacksOffAndRecovers() {
+    StreamMetrics metrics = new StreamMetrics();
+    RateController controller = new RateController(10, 50, 3, metrics);
+    long now = System.nanoTime();
+
+    controller.onSendFailed(now);
+    assertEquals(1, metrics.congestionEvents());
+    assertEquals(2, metrics.tries());
+    assertEquals(37.5, metrics.frameRateLimit(), 0.001);
+
+    // Failures in quick succession count as a single congestion event
+    controller.onSendFailed(now + MS);
+    assertEquals(1, metrics.congestionEvents());
+
+    // Slow sends count as congestion too
+    now += RateController.MIN_NANOS_BETWEEN_DECREASES;
+    controller.onSendSucceeded(now, 2 * RateController.CONGESTED_SEND_NANOS);
+    assertEquals(2, metrics.congestionEvents());
+    assertEquals(1, metrics.tries());
+
+    // Redundancy comes back before frame rate does
+    double congestedFrameRate = metrics.frameRateLimit();
+    for (int i = 0; i < 2 * RateController.HEALTHY_FRAMES_TO_RECOVER; i++) {
+      controller.onSendSucceeded(now, 10_000);
+    }
+    assertEquals(3, metrics.tries());
+    assertEquals(congestedFrameRate, metrics.frameRateLimit(), 0.001);
+
+    for (int i = 0; i < RateController.HEALTHY_FRAMES_TO_RECOVER; i++) {
+      controller.onSendSucceeded(now, 10_000);
+    }
+    assertEquals(congestedFrameRate + 1, metrics.frameRateLimit(), 0.001);
+  }
+
+}
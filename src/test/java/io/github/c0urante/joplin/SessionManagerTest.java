@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SessionManagerTest {
+
+  private static final String FIRST_AREA = "00000000-0000-0000-0000-000000000001";
+  private static final String SECOND_AREA = "00000000-0000-0000-0000-000000000002";
+
+  private SessionManager manager;
+  private FakeBridge bridge;
+
+  @RegisterExtension
+  final ClientFixture fixture = new ClientFixture();
+
+  @Test
+  public void testClientPerArea() {
+    manager = fixture.closeAfterTest(createManager().areas(FIRST_AREA, SECOND_AREA).build());
+
+    HueEntertainmentClient first = manager.client(FIRST_AREA);
+    assertSame(first, manager.client(FIRST_AREA));
+    assertNotSame(first, manager.client(SECOND_AREA));
+    assertNull(manager.active());
+  }
+
+  @Test
+  public void testUnknownArea() {
+    manager = fixture.closeAfterTest(createManager().area(FIRST_AREA).build());
+
+    assertThrows(IllegalArgumentException.class, () -> manager.client(SECOND_AREA));
+    assertThrows(IllegalArgumentException.class, () -> manager.switchTo(SECOND_AREA));
+  }
+
+  @Test
+  public void testNoAreas() {
+    assertThrows(IllegalArgumentException.class, () -> createManager().build());
+  }
+
+  @Test
+  public void testSwitchSendsFirstFrame() throws Exception {
+    bridge = fixture.bridge();
+    manager = fixture.closeAfterTest(SessionManager.builder(bridge.clientBuilder())
+        .areas(FIRST_AREA, SECOND_AREA)
+        .build());
+    manager.prepare();
+
+    HueEntertainmentClient client = manager.switchTo(SECOND_AREA, new Light(0, new Rgb(0xFFFF, 0, 0)));
+
+    assertSame(manager.client(SECOND_AREA), client);
+    assertSame(client, manager.active());
+    FakeBridge.Frame frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(SECOND_AREA, frame.entertainmentArea());
+    assertEquals(0xFFFF, frame.component(0, 0));
+    assertEquals(1, manager.switches());
+  }
+
+  @Test
+  public void testSwitchStopsPreviousAreaBeforeStartingNext() throws Exception {
+    bridge = fixture.bridge();
+    manager = fixture.closeAfterTest(SessionManager.builder(bridge.clientBuilder())
+        .areas(FIRST_AREA, SECOND_AREA)
+        .build());
+    manager.prepare();
+
+    manager.switchTo(FIRST_AREA);
+    manager.switchTo(SECOND_AREA, new Light(0, new Rgb(0, 0xFFFF, 0)));
+
+    assertEquals(
+        Arrays.asList("start " + FIRST_AREA, "stop " + FIRST_AREA, "start " + SECOND_AREA),
+        streamControlRequests()
+    );
+    FakeBridge.Frame frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(SECOND_AREA, frame.entertainmentArea());
+    assertEquals(2, manager.switches());
+  }
+
+  @Test
+  public void testFailedHandshakeDuringSwitch() throws Exception {
+    bridge = fixture.bridge();
+    manager = fixture.closeAfterTest(SessionManager.builder(
+            bridge.clientBuilder().handshakeTimeout(Duration.ofMillis(200)))
+        .areas(FIRST_AREA, SECOND_AREA)
+        .build());
+    manager.prepare();
+    manager.switchTo(FIRST_AREA);
+
+    bridge.ignoreHandshakes(true);
+    assertThrows(IOException.class, () -> manager.switchTo(SECOND_AREA));
+
+    // The bridge had already started streaming to the new area, so it's stopped again
+    assertNull(manager.active());
+    assertTrue(bridge.awaitRequest("stop " + SECOND_AREA));
+    assertEquals(1, manager.switches());
+
+    // Both areas can still be switched to afterwards
+    bridge.ignoreHandshakes(false);
+    assertSame(manager.client(SECOND_AREA), manager.switchTo(SECOND_AREA));
+    assertSame(manager.client(FIRST_AREA), manager.switchTo(FIRST_AREA));
+    assertEquals(3, manager.switches());
+  }
+
+  @Test
+  public void testRejectedStartDuringSwitch() throws Exception {
+    bridge = fixture.bridge();
+    manager = fixture.closeAfterTest(SessionManager.builder(bridge.clientBuilder())
+        .areas(FIRST_AREA, SECOND_AREA)
+        .build());
+    manager.switchTo(FIRST_AREA);
+
+    bridge.startStatus(503);
+    assertThrows(IOException.class, () -> manager.switchTo(SECOND_AREA));
+
+    assertNull(manager.active());
+    assertEquals(1, manager.switches());
+  }
+
+  @Test
+  public void testRejectedStopDuringSwitch() throws Exception {
+    bridge = fixture.bridge();
+    manager = fixture.closeAfterTest(SessionManager.builder(bridge.clientBuilder())
+        .areas(FIRST_AREA, SECOND_AREA)
+        .build());
+    manager.switchTo(FIRST_AREA);
+
+    bridge.stopStatus(503);
+    assertThrows(IOException.class, () -> manager.switchTo(SECOND_AREA));
+
+    // The old area no longer streams, and the new one was never started
+    assertNull(manager.active());
+    assertEquals(Arrays.asList("start " + FIRST_AREA, "stop " + FIRST_AREA), streamControlRequests());
+    assertEquals(1, manager.switches());
+
+    bridge.stopStatus(200);
+    manager.switchTo(FIRST_AREA, new Light(0, new Rgb(0xFFFF, 0, 0)));
+    assertSame(manager.client(FIRST_AREA), manager.active());
+    FakeBridge.Frame frame = bridge.nextFrame();
+    assertNotNull(frame);
+    assertEquals(FIRST_AREA, frame.entertainmentArea());
+  }
+
+  @Test
+  public void testSwitchWarmsUpNextAreaWhileStopping() throws Exception {
+    bridge = fixture.bridge();
+    manager = fixture.closeAfterTest(SessionManager.builder(bridge.clientBuilder())
+        .areas(FIRST_AREA, SECOND_AREA)
+        .build());
+    manager.switchTo(FIRST_AREA);
+    assertFalse(bridge.requests().contains("get entertainment_configuration/" + SECOND_AREA));
+
+    manager.switchTo(SECOND_AREA);
+
+    List<String> requests = bridge.requests();
+    int warmUp = requests.indexOf("get entertainment_configuration/" + SECOND_AREA);
+    assertTrue(warmUp >= 0, requests.toString());
+    assertTrue(warmUp < requests.indexOf("start " + SECOND_AREA), requests.toString());
+  }
+
+  @Test
+  public void testClientBuilderIsNotModified() throws Exception {
+    bridge = fixture.bridge();
+    HueEntertainmentClient.Builder clients = bridge.clientBuilder();
+    manager = fixture.closeAfterTest(SessionManager.builder(clients)
+        .areas(FIRST_AREA, SECOND_AREA)
+        .build());
+
+    try (HueEntertainmentClient client = clients.build()) {
+      client.initializeStream();
+    }
+    assertEquals(Collections.singletonList("start " + TestClients.ENTERTAINMENT_AREA), streamControlRequests());
+  }
+
+  private List<String> streamControlRequests() {
+    return bridge.requests().stream()
+        .filter(request -> !request.startsWith("get "))
+        .collect(Collectors.toList());
+  }
+
+  private static SessionManager.Builder createManager() {
+    return SessionManager.builder(TestClients.offline());
+  }
+
+}
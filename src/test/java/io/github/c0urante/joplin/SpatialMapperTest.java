@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class SpatialMapperTest {
+
+  private static final HueColor BLACK = new Rgb(0, 0, 0);
+  private static final HueColor RED = new Rgb(0xFFFF, 0, 0);
+
+  private static final EntertainmentConfiguration CONFIGURATION = new EntertainmentConfiguration(
+      "area",
+      "Living room",
+      Arrays.asList(
+          channel(0, -1, 0, 0),
+          channel(1, 0, 0, 0),
+          channel(2, 1, 0, 0)
+      )
+  );
+
+  @Test
+  public void testLinearGradient() {
+    SpatialMapper mapper = SpatialMapper.linear(CONFIGURATION, 1, 0, 0);
+
+    Light[] lights = mapper.render(SpatialMapper.Field.gradient(), BLACK, RED, 0);
+
+    assertEquals(3, lights.length);
+    assertEquals(0, red(lights[0]));
+    assertEquals(0x8000, red(lights[1]));
+    assertEquals(0xFFFF, red(lights[2]));
+  }
+
+  @Test
+  public void testReversedDirection() {
+    SpatialMapper mapper = SpatialMapper.linear(CONFIGURATION, -1, 0, 0);
+
+    Light[] lights = mapper.render(SpatialMapper.Field.gradient(), BLACK, RED, 0);
+
+    assertEquals(0xFFFF, red(lights[0]));
+    assertEquals(0, red(lights[2]));
+  }
+
+  @Test
+  public void testRadialBurst() {
+    SpatialMapper mapper = SpatialMapper.radial(CONFIGURATION, new Position(-1, 0, 0));
+    SpatialMapper.Field burst = SpatialMapper.Field.burst(1, 0.25);
+
+    // The band starts at the center...
+    Light[] lights = mapper.render(burst, BLACK, RED, 0);
+    assertEquals(0xFFFF, red(lights[0]));
+    assertEquals(0, red(lights[1]));
+    assertEquals(0, red(lights[2]));
+
+    // ...and reaches the furthest channel after one second
+    lights = mapper.render(burst, BLACK, RED, 1);
+    assertEquals(0, red(lights[0]));
+    assertEquals(0, red(lights[1]));
+    assertEquals(0xFFFF, red(lights[2]));
+  }
+
+  @Test
+  public void testWaveMoves() {
+    SpatialMapper mapper = SpatialMapper.linear(CONFIGURATION, 1, 0, 0);
+    SpatialMapper.Field wave = SpatialMapper.Field.wave(1, 1);
+
+    assertEquals(0xFFFF, red(mapper.render(wave, BLACK, RED, 0)[0]));
+    assertEquals(0, red(mapper.render(wave, BLACK, RED, 0.5)[0]));
+  }
+
+  @Test
+  public void testWaveSamplerMatchesField() {
+    SpatialMapper mapper = SpatialMapper.linear(CONFIGURATION, 1, 0, 0);
+    SpatialMapper.Field wave = SpatialMapper.Field.wave(0.3, 1.7);
+    double[] coordinates = {0, 0.5, 1};
+
+    for (double time = 0; time < 1; time += 0.1) {
+      Light[] lights = mapper.render(wave, BLACK, RED, time);
+      for (int i = 0; i < lights.length; i++) {
+        Position position = CONFIGURATION.channels().get(i).position();
+        double weight = wave.weight(coordinates[i], position, time);
+        assertEquals(Math.round(weight * 0xFFFF), red(lights[i]), 1);
+      }
+    }
+  }
+
+  @Test
+  public void testFieldSeesPositions() {
+    SpatialMapper mapper = SpatialMapper.radial(CONFIGURATION, new Position(0, 0, 0));
+    // Both outer channels are equally far from the center; only their positions tell them apart
+    SpatialMapper.Field right = (coordinate, position, timeSeconds) -> position.x() > 0 ? coordinate : 0;
+
+    Light[] lights = mapper.render(right, BLACK, RED, 0);
+
+    assertEquals(0, red(lights[0]));
+    assertEquals(0, red(lights[1]));
+    assertEquals(0xFFFF, red(lights[2]));
+  }
+
+  @Test
+  public void testRenderEncodedMatchesRender() {
+    SpatialMapper mapper = SpatialMapper.linear(CONFIGURATION, 1, 0, 0);
+    SpatialMapper.Field wave = SpatialMapper.Field.wave(0.5, 1);
+    HueColor from = new Rgb(0x1234, 0xFFFF, 0);
+    HueColor to = new Rgb(0xFFFF, 0x0F0F, 0xABCD);
+
+    for (double time = 0; time < 1; time += 0.1) {
+      ByteBuffer expected = ByteBuffer.allocate(3 * 7);
+      for (Light light : mapper.render(wave, from, to, time)) {
+        light.serializeTo(expected);
+      }
+      expected.flip();
+
+      assertEquals(expected, mapper.renderEncoded(wave, from, to, time));
+    }
+  }
+
+  @Test
+  public void testRenderEncodedReusesBuffer() {
+    SpatialMapper mapper = SpatialMapper.linear(CONFIGURATION, 1, 0, 0);
+
+    ByteBuffer first = mapper.renderEncoded(SpatialMapper.Field.gradient(), BLACK, RED, 0);
+    assertEquals(3 * 7, first.remaining());
+    // Consumed, as it would be by the client
+    first.position(first.limit());
+
+    ByteBuffer second = mapper.renderEncoded(SpatialMapper.Field.gradient(), RED, BLACK, 0);
+    assertSame(first, second);
+    assertEquals(0, second.position());
+    assertEquals(3 * 7, second.remaining());
+    assertEquals(2, second.get(14));
+    assertEquals(0, second.getShort(15));
+  }
+
+  private static int red(Light light) {
+    ByteBuffer buffer = ByteBuffer.allocate(6);
+    light.color().serializeTo(buffer);
+    return buffer.getShort(0) & 0xFFFF;
+  }
+
+  private static EntertainmentChannel channel(int id, double x, double y, double z) {
+    return new EntertainmentChannel(id, new Position(x, y, z), Collections.emptyList(), Gamut.C);
+  }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin;
+
+/**
+ * Shared fixtures for tests that need a {@link HueEntertainmentClient}.
+ */
+public final class TestClients {
+
+  public static final String ENTERTAINMENT_AREA = "00000000-0000-0000-0000-000000000000";
+
+  private TestClients() {
+  }
+
+  /**
+   * @return a builder for clients of a bridge that is never contacted, for
+   * tests that don't initialize a stream
+   */
+  public static HueEntertainmentClient.Builder offline() {
+    return HueEntertainmentClient.builder()
+        .host("127.0.0.1")
+        .username("username")
+        .clientKey("00000000000000000000000000000000")
+        .entertainmentArea(ENTERTAINMENT_AREA);
+  }
+
+}
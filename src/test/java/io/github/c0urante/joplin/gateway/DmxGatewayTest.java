@@ -0,0 +1,189 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.gateway;
+
+import io.github.c0urante.joplin.ClientFixture;
+import io.github.c0urante.joplin.FakeBridge;
+import io.github.c0urante.joplin.HueEntertainmentClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DmxGatewayTest {
+
+  @RegisterExtension
+  final ClientFixture fixture = new ClientFixture();
+
+  @Test
+  public void testArtNetEightBit() {
+    DmxGateway gateway = createGateway(DmxPatch.builder()
+        .channels(0, 2, 0x0102, 1, DmxPatch.Resolution.EIGHT_BIT)
+        .build());
+    assertNull(gateway.encodeFrame());
+
+    byte[] data = new byte[512];
+    data[0] = (byte) 255;
+    data[1] = (byte) 128;
+    data[2] = 0;
+    data[3] = 1;
+    data[4] = 2;
+    data[5] = 3;
+    assertTrue(gateway.apply(artNetPacket(0x0102, data)));
+
+    ByteBuffer frame = gateway.encodeFrame();
+    assertLight(frame, 0, 0xFFFF, 0x8080, 0);
+    assertLight(frame, 1, 0x0101, 0x0202, 0x0303);
+    assertEquals(0, frame.remaining());
+  }
+
+  @Test
+  public void testSacnSixteenBit() {
+    DmxGateway gateway = createGateway(DmxPatch.builder()
+        .channel(7, 5, 11, DmxPatch.Resolution.SIXTEEN_BIT)
+        .build());
+
+    byte[] data = new byte[24];
+    data[10] = 0x12;
+    data[11] = 0x34;
+    data[12] = 0x56;
+    data[13] = 0x78;
+    data[14] = (byte) 0x9A;
+    data[15] = (byte) 0xBC;
+    assertTrue(gateway.apply(sacnPacket(5, data)));
+
+    assertLight(gateway.encodeFrame(), 7, 0x1234, 0x5678, 0x9ABC);
+  }
+
+  @Test
+  public void testOtherUniversesAndShortPacketsIgnored() {
+    DmxGateway gateway = createGateway(DmxPatch.builder()
+        .channel(0, 1, 1, DmxPatch.Resolution.EIGHT_BIT)
+        .channel(1, 1, 510, DmxPatch.Resolution.EIGHT_BIT)
+        .build());
+
+    // Valid packet, but for a universe that isn't patched
+    assertTrue(gateway.apply(artNetPacket(2, new byte[] {1, 2, 3})));
+    assertNull(gateway.encodeFrame());
+
+    // Only long enough for the first channel
+    assertTrue(gateway.apply(artNetPacket(1, new byte[] {1, 2, 3})));
+    ByteBuffer frame = gateway.encodeFrame();
+    assertLight(frame, 0, 0x0101, 0x0202, 0x0303);
+    assertLight(frame, 1, 0, 0, 0);
+
+    // Not DMX at all
+    assertFalse(gateway.apply(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8))));
+  }
+
+  @Test
+  public void testForwardsReceivedPackets() throws Exception {
+    FakeBridge bridge = fixture.bridge();
+    HueEntertainmentClient client = fixture.streamingClient();
+    DmxGateway gateway = DmxGateway.builder(client)
+        .patch(DmxPatch.builder()
+            .channel(4, 1, 1, DmxPatch.Resolution.EIGHT_BIT)
+            .build())
+        .bindAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+        .frameRate(200)
+        .build();
+
+    try (DatagramSocket console = new DatagramSocket()) {
+      gateway.start();
+      ByteBuffer packet = artNetPacket(1, new byte[] {(byte) 255, 0, 1});
+      console.send(new DatagramPacket(packet.array(), packet.limit(), gateway.localAddress()));
+
+      FakeBridge.Frame frame = bridge.nextFrame();
+      assertNotNull(frame);
+      assertEquals(1, frame.numLights());
+      assertEquals(4, frame.channel(0));
+      assertEquals(0xFFFF, frame.component(0, 0));
+      assertEquals(0, frame.component(0, 1));
+      assertEquals(0x0101, frame.component(0, 2));
+    } finally {
+      gateway.close();
+    }
+    assertEquals(1, gateway.packetsReceived());
+    assertNull(gateway.failure());
+  }
+
+  private static void assertLight(ByteBuffer frame, int channel, int red, int green, int blue) {
+    assertEquals(channel, frame.get() & 0xFF);
+    assertEquals(red, frame.getShort() & 0xFFFF);
+    assertEquals(green, frame.getShort() & 0xFFFF);
+    assertEquals(blue, frame.getShort() & 0xFFFF);
+  }
+
+  private static ByteBuffer artNetPacket(int portAddress, byte[] data) {
+    ByteBuffer result = ByteBuffer.allocate(18 + data.length);
+    result.put("Art-Net\0".getBytes(StandardCharsets.US_ASCII));
+    result.put((byte) 0x00).put((byte) 0x50);
+    result.put((byte) 0).put((byte) 14);
+    result.put((byte) 0).put((byte) 0);
+    result.put((byte) portAddress).put((byte) (portAddress >> 8));
+    result.putShort((short) data.length);
+    result.put(data);
+    return result.flip();
+  }
+
+  private static ByteBuffer sacnPacket(int universe, byte[] data) {
+    ByteBuffer result = ByteBuffer.allocate(126 + data.length);
+    // Root layer
+    result.putShort((short) 0x0010).putShort((short) 0);
+    result.put("ASC-E1.17\0\0\0".getBytes(StandardCharsets.US_ASCII));
+    result.putShort((short) (0x7000 | (110 + data.length)));
+    result.putInt(0x00000004);
+    result.put(new byte[16]);
+    // Framing layer
+    result.putShort((short) (0x7000 | (88 + data.length)));
+    result.putInt(0x00000002);
+    result.put(new byte[64]);
+    result.put((byte) 100);
+    result.putShort((short) 0);
+    result.put((byte) 0);
+    result.put((byte) 0);
+    result.putShort((short) universe);
+    // DMP layer
+    result.putShort((short) (0x7000 | (11 + data.length)));
+    result.put((byte) 0x02);
+    result.put((byte) 0xA1);
+    result.putShort((short) 0);
+    result.putShort((short) 1);
+    result.putShort((short) (data.length + 1));
+    result.put((byte) 0);
+    result.put(data);
+    return result.flip();
+  }
+
+  private DmxGateway createGateway(DmxPatch patch) {
+    HueEntertainmentClient client = fixture.offlineClient();
+    return DmxGateway.builder(client)
+        .patch(patch)
+        .build();
+  }
+
+}
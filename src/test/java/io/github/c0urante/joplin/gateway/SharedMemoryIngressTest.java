@@ -0,0 +1,194 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.gateway;
+
+import io.github.c0urante.joplin.ClientFixture;
+import io.github.c0urante.joplin.FakeBridge;
+import io.github.c0urante.joplin.HueEntertainmentClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class SharedMemoryIngressTest {
+
+  private static final int SLOTS = 4;
+  private static final int MAX_LIGHTS = 2;
+
+  @TempDir
+  Path tempDir;
+
+  @RegisterExtension
+  final ClientFixture fixture = new ClientFixture();
+
+  @Test
+  public void testFramesFromAnotherMapping() throws Exception {
+    Path file = tempDir.resolve("frames");
+    SharedMemoryIngress ingress = createIngress(file);
+    ingress.map();
+    Producer producer = new Producer(file);
+
+    assertNull(ingress.poll());
+
+    producer.publish(new byte[] {3, 0x12, 0x34, 0x56, 0x78, (byte) 0x9A, (byte) 0xBC});
+    ByteBuffer frame = ingress.poll();
+    assertEquals(7, frame.remaining());
+    assertEquals(3, frame.get());
+    assertEquals(0x1234, frame.getShort() & 0xFFFF);
+    ingress.release();
+    assertEquals(1, producer.readSequence());
+    assertNull(ingress.poll());
+  }
+
+  @Test
+  public void testSkipsToNewestFrame() throws Exception {
+    Path file = tempDir.resolve("frames");
+    SharedMemoryIngress ingress = createIngress(file);
+    ingress.map();
+    Producer producer = new Producer(file);
+
+    producer.publish(new byte[] {0, 0, 0, 0, 0, 0, 0});
+    producer.publish(new byte[] {1, 0, 0, 0, 0, 0, 0});
+    producer.publish(new byte[] {2, 0, 0, 0, 0, 0, 0, 3, 0, 0, 0, 0, 0, 0});
+
+    ByteBuffer frame = ingress.poll();
+    assertEquals(14, frame.remaining());
+    assertEquals(2, frame.get(frame.position()));
+    ingress.release();
+
+    assertEquals(3, ingress.framesReceived());
+    assertEquals(2, ingress.framesSkipped());
+    assertEquals(3, producer.readSequence());
+  }
+
+  @Test
+  public void testRejectsOversizedFrames() throws Exception {
+    Path file = tempDir.resolve("frames");
+    SharedMemoryIngress ingress = createIngress(file);
+    ingress.map();
+    Producer producer = new Producer(file);
+
+    producer.publish(new byte[7 * (MAX_LIGHTS + 1)]);
+    assertNull(ingress.poll());
+    assertEquals(1, ingress.framesRejected());
+    assertEquals(1, producer.readSequence());
+  }
+
+  @Test
+  public void testRuntimeFailureStopsConsumer() throws Exception {
+    Path file = tempDir.resolve("frames");
+    SharedMemoryIngress ingress = createIngress(file);
+    ingress.start();
+    Producer producer = new Producer(file);
+
+    // The client's stream was never initialized, so sending throws IllegalStateException
+    producer.publish(new byte[] {0, 0, 0, 0, 0, 0, 0});
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (ingress.failure() == null && System.nanoTime() - deadline < 0) {
+      Thread.sleep(1);
+    }
+    ingress.close();
+
+    assertInstanceOf(IllegalStateException.class, ingress.failure());
+  }
+
+  @Test
+  public void testSendsFrames() throws Exception {
+    FakeBridge bridge = fixture.bridge();
+    HueEntertainmentClient client = fixture.streamingClient();
+    SharedMemoryIngress ingress = createIngress(tempDir.resolve("frames"), client);
+    ingress.start();
+    Producer producer = new Producer(tempDir.resolve("frames"));
+
+    try {
+      producer.publish(new byte[] {3, 0x12, 0x34, 0x56, 0x78, (byte) 0x9A, (byte) 0xBC});
+      FakeBridge.Frame frame = bridge.nextFrame();
+      assertNotNull(frame);
+      assertEquals(1, frame.numLights());
+      assertEquals(3, frame.channel(0));
+      assertEquals(0x1234, frame.component(0, 0));
+      assertEquals(0x9ABC, frame.component(0, 2));
+
+      producer.publish(new byte[] {4, 0, 0, 0, 0, 0, 0, 5, 0, 0, 0, 0, 0, 0});
+      frame = bridge.nextFrame();
+      assertNotNull(frame);
+      assertEquals(2, frame.numLights());
+      assertEquals(5, frame.channel(1));
+    } finally {
+      ingress.close();
+    }
+    assertNull(ingress.failure());
+  }
+
+  private SharedMemoryIngress createIngress(Path file) {
+    HueEntertainmentClient client = fixture.offlineClient();
+    return createIngress(file, client);
+  }
+
+  private static SharedMemoryIngress createIngress(Path file, HueEntertainmentClient client) {
+    return SharedMemoryIngress.builder(client)
+        .file(file)
+        .slotCount(SLOTS)
+        .maxLights(MAX_LIGHTS)
+        .build();
+  }
+
+  // Stands in for a frame producer in another process, with its own mapping
+  private static class Producer {
+
+    private final MappedByteBuffer mapping;
+    private long writeSequence = 0;
+
+    Producer(Path file) throws Exception {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      }
+      mapping.order(ByteOrder.nativeOrder());
+      assertEquals(SharedMemoryIngress.MAGIC, mapping.getInt(0));
+    }
+
+    void publish(byte[] lights) {
+      int slotSize = mapping.getInt(12);
+      int slot = SharedMemoryIngress.SLOTS_OFFSET + (int) (writeSequence % SLOTS) * slotSize;
+      mapping.putInt(slot, lights.length / 7);
+      // Oversized frames are written partially, as a buggy producer might
+      int length = Math.min(lights.length, slotSize - SharedMemoryIngress.SLOT_HEADER_SIZE);
+      for (int i = 0; i < length; i++) {
+        mapping.put(slot + SharedMemoryIngress.SLOT_HEADER_SIZE + i, lights[i]);
+      }
+      writeSequence++;
+      mapping.putLong(SharedMemoryIngress.WRITE_SEQUENCE_OFFSET, writeSequence);
+    }
+
+    long readSequence() {
+      return mapping.getLong(SharedMemoryIngress.READ_SEQUENCE_OFFSET);
+    }
+
+  }
+
+}
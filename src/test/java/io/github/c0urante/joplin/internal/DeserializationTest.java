@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.c0urante.joplin.EntertainmentChannel;
+import io.github.c0urante.joplin.EntertainmentConfiguration;
+import io.github.c0urante.joplin.Gamut;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DeserializationTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Test
+  public void testEntertainmentConfiguration() throws IOException {
+    EntertainmentConfiguration configuration = parse();
+
+    assertEquals("6f2ac3b1-0a6c-4b2e-9d2a-5c1f0e9b8a01", configuration.id());
+    assertEquals("Living room", configuration.name());
+
+    List<EntertainmentChannel> channels = configuration.channels();
+    assertEquals(5, channels.size());
+    // Sorted by channel ID, regardless of the order the bridge listed them in
+    for (int i = 0; i < channels.size(); i++) {
+      assertEquals(i, channels.get(i).channelId());
+    }
+
+    EntertainmentChannel first = channels.get(0);
+    assertEquals(-0.5, first.position().x());
+    assertEquals(0.8, first.position().y());
+    assertEquals(-0.25, first.position().z());
+    assertEquals(Collections.singletonList("light-1"), first.lightIds());
+    assertEquals(Gamut.C, first.gamut());
+
+    assertEquals(Collections.singletonList("light-2"), channels.get(1).lightIds());
+    assertEquals(Gamut.B, channels.get(1).gamut());
+  }
+
+  @Test
+  public void testMixedGamutsAreOther() throws IOException {
+    EntertainmentChannel mixed = parse().channels().get(2);
+    assertEquals(Arrays.asList("light-1", "light-3"), mixed.lightIds());
+    assertEquals(Gamut.OTHER, mixed.gamut());
+  }
+
+  @Test
+  public void testSegmentsOfTheSameLightAreDeduplicated() throws IOException {
+    // Two segments of the same light, plus the bridge's own service, which has no light
+    EntertainmentChannel segments = parse().channels().get(3);
+    assertEquals(Collections.singletonList("light-2"), segments.lightIds());
+    assertEquals(Gamut.B, segments.gamut());
+  }
+
+  @Test
+  public void testChannelWithoutLights() throws IOException {
+    EntertainmentChannel empty = parse().channels().get(4);
+    assertEquals(Collections.emptyList(), empty.lightIds());
+    assertEquals(Gamut.OTHER, empty.gamut());
+  }
+
+  @Test
+  public void testNameFallsBackToTopLevelField() throws IOException {
+    JsonNode configuration = MAPPER.readTree(
+        "{\"id\": \"area\", \"name\": \"Legacy name\", \"channels\": []}"
+    );
+    EntertainmentConfiguration result = Deserialization.entertainmentConfiguration(
+        configuration,
+        MAPPER.createArrayNode(),
+        MAPPER.createArrayNode()
+    );
+    assertEquals("Legacy name", result.name());
+    assertEquals(Collections.emptyList(), result.channels());
+  }
+
+  @Test
+  public void testMissingChannels() throws IOException {
+    JsonNode services = fixture("entertainment.json");
+    JsonNode lights = fixture("light.json");
+    assertThrows(IOException.class, () -> Deserialization.entertainmentConfiguration(
+        MAPPER.readTree("{\"id\": \"area\"}"),
+        services,
+        lights
+    ));
+    assertThrows(IOException.class, () -> Deserialization.entertainmentConfiguration(
+        MAPPER.readTree("{\"id\": \"area\", \"channels\": {}}"),
+        services,
+        lights
+    ));
+  }
+
+  private EntertainmentConfiguration parse() throws IOException {
+    return Deserialization.entertainmentConfiguration(
+        fixture("entertainment_configuration.json").get(0),
+        fixture("entertainment.json"),
+        fixture("light.json")
+    );
+  }
+
+  // Returns the data array of a recorded CLIP v2 response
+  private JsonNode fixture(String name) throws IOException {
+    try (InputStream stream = getClass().getResourceAsStream(name)) {
+      if (stream == null) {
+        throw new IOException("Missing test fixture " + name);
+      }
+      return MAPPER.readTree(stream).get("data");
+    }
+  }
+
+}
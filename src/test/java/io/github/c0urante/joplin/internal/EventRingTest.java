@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventRingTest {
+
+  private static final BiConsumer<int[], Integer> WRITE = (entry, value) -> entry[0] = value;
+
+  @Test
+  public void testDrainInOrder() {
+    EventRing<int[]> ring = createRing(4);
+    ring.publish(WRITE, 1);
+    ring.publish(WRITE, 2);
+    ring.publish(WRITE, 3);
+
+    List<Integer> drained = new ArrayList<>();
+    assertEquals(3, ring.drain(entry -> drained.add(entry[0])));
+    assertEquals(Arrays.asList(1, 2, 3), drained);
+    assertEquals(0, ring.drain(entry -> drained.add(entry[0])));
+  }
+
+  @Test
+  public void testDiscardsWhenFull() {
+    EventRing<int[]> ring = createRing(3);
+    // Rounded up to 4
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ring.publish(WRITE, i));
+    }
+    assertFalse(ring.publish(WRITE, 4));
+    assertEquals(1, ring.discarded());
+
+    List<Integer> drained = new ArrayList<>();
+    ring.drain(entry -> drained.add(entry[0]));
+    assertEquals(Arrays.asList(0, 1, 2, 3), drained);
+
+    // Space is reclaimed after draining
+    assertTrue(ring.publish(WRITE, 5));
+    drained.clear();
+    ring.drain(entry -> drained.add(entry[0]));
+    assertEquals(Arrays.asList(5), drained);
+  }
+
+  @Test
+  public void testEntriesAreReused() {
+    EventRing<int[]> ring = createRing(1);
+    ring.publish(WRITE, 1);
+    List<int[]> drained = new ArrayList<>();
+    ring.drain(drained::add);
+
+    ring.publish(WRITE, 2);
+    ring.drain(drained::add);
+
+    assertSame(drained.get(0), drained.get(1));
+    assertEquals(2, drained.get(0)[0]);
+  }
+
+  @Test
+  public void testFailedConsumerStillConsumesEvent() {
+    EventRing<int[]> ring = createRing(4);
+    ring.publish(WRITE, 1);
+    ring.publish(WRITE, 2);
+
+    assertThrows(IllegalStateException.class, () -> ring.drain(entry -> {
+      throw new IllegalStateException();
+    }));
+
+    List<Integer> drained = new ArrayList<>();
+    ring.drain(entry -> drained.add(entry[0]));
+    assertEquals(Arrays.asList(2), drained);
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    EventRing<int[]> ring = createRing(1 << 16);
+    Thread[] producers = new Thread[4];
+    for (int p = 0; p < producers.length; p++) {
+      producers[p] = new Thread(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          ring.publish(WRITE, i);
+        }
+      });
+      producers[p].start();
+    }
+
+    long[] consumed = {0};
+    while (consumed[0] < 40_000) {
+      ring.drain(event -> consumed[0]++);
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    assertEquals(40_000, consumed[0]);
+    assertEquals(0, ring.discarded());
+  }
+
+  private static EventRing<int[]> createRing(int capacity) {
+    return new EventRing<>(capacity, () -> new int[1]);
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class FrameLoopTest {
+
+  @Test
+  public void testIOExceptionStopsLoop() throws Exception {
+    assertStopsWith(new IOException("send failed"));
+  }
+
+  @Test
+  public void testRuntimeExceptionStopsLoop() throws Exception {
+    assertStopsWith(new IllegalStateException("Must initialize stream before sending colors to bridge"));
+  }
+
+  private static void assertStopsWith(Exception thrown) throws Exception {
+    AtomicInteger runs = new AtomicInteger();
+    FrameLoop loop = new FrameLoop("test-loop", 1_000, nowNanos -> {
+      runs.incrementAndGet();
+      if (thrown instanceof IOException) {
+        throw (IOException) thrown;
+      }
+      throw (RuntimeException) thrown;
+    });
+    assertNull(loop.failure());
+
+    loop.start();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (loop.failure() == null && System.nanoTime() - deadline < 0) {
+      Thread.sleep(1);
+    }
+    loop.close();
+
+    assertInstanceOf(thrown.getClass(), loop.failure());
+    assertEquals(thrown, loop.failure());
+    assertEquals(1, runs.get());
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResourceCacheTest {
+
+  private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+  @Test
+  public void testKeyedIndependently() {
+    ResourceCache<String> cache = new ResourceCache<>();
+    assertNull(cache.get("bridge-1/area"));
+
+    cache.put("bridge-1/area", "first", "etag-1", HOUR);
+    cache.put("bridge-2/area", "second", null, HOUR);
+
+    assertEquals("first", cache.get("bridge-1/area").value());
+    assertEquals("etag-1", cache.get("bridge-1/area").etag());
+    assertEquals("second", cache.get("bridge-2/area").value());
+    assertNull(cache.get("bridge-2/area").etag());
+    assertNull(cache.get("bridge-1/other-area"));
+  }
+
+  @Test
+  public void testReplacesEntry() {
+    ResourceCache<String> cache = new ResourceCache<>();
+    cache.put("key", "old", "etag-1", HOUR);
+    cache.put("key", "new", "etag-2", HOUR);
+
+    assertEquals("new", cache.get("key").value());
+    assertEquals("etag-2", cache.get("key").etag());
+  }
+
+  @Test
+  public void testExpiry() {
+    ResourceCache<String> cache = new ResourceCache<>();
+    long before = System.nanoTime();
+    cache.put("key", "value", null, HOUR);
+    long after = System.nanoTime();
+
+    ResourceCache.Entry<String> entry = cache.get("key");
+    assertTrue(entry.isFresh(after));
+    assertTrue(entry.isFresh(before + HOUR - 1));
+    assertFalse(entry.isFresh(after + HOUR));
+
+    // A stale entry is still returned, so that it can be revalidated
+    cache.put("key", "value", null, 0);
+    assertFalse(cache.get("key").isFresh(System.nanoTime()));
+    assertEquals("value", cache.get("key").value());
+  }
+
+  @Test
+  public void testRevalidate() {
+    ResourceCache<String> cache = new ResourceCache<>();
+    String value = "value";
+    cache.put("key", value, "etag", 0);
+    ResourceCache.Entry<String> stale = cache.get("key");
+    assertFalse(stale.isFresh(System.nanoTime()));
+
+    cache.revalidate("key", stale, HOUR);
+    ResourceCache.Entry<String> revalidated = cache.get("key");
+    assertNotSame(stale, revalidated);
+    assertTrue(revalidated.isFresh(System.nanoTime()));
+    assertSame(value, revalidated.value());
+    assertEquals("etag", revalidated.etag());
+  }
+
+}
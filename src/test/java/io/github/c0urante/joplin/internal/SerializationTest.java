@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2023 Chris Egerton (fearthecellos@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.c0urante.joplin.internal;
+
+import io.github.c0urante.joplin.Light;
+import io.github.c0urante.joplin.Rgb;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SerializationTest {
+
+  private static final byte[] AREA = "00000000-0000-0000-0000-000000000000".getBytes();
+
+  @Test
+  public void testLightsPerMessage() {
+    assertEquals(20, Serialization.lightsPerMessage(1_400));
+    assertEquals(2, Serialization.lightsPerMessage(Serialization.HEADER_SIZE + 2 * Serialization.LIGHT_SIZE + 6));
+    assertEquals(0, Serialization.lightsPerMessage(Serialization.HEADER_SIZE + Serialization.LIGHT_SIZE - 1));
+    assertEquals(0, Serialization.lightsPerMessage(0));
+  }
+
+  @Test
+  public void testSplitFrameSharesSequenceNumber() {
+    Light[] lights = new Light[5];
+    for (int i = 0; i < lights.length; i++) {
+      lights[i] = new Light(i, new Rgb(i, i, i));
+    }
+
+    byte[] first = new byte[Serialization.messageSize(3)];
+    byte[] second = new byte[Serialization.messageSize(3)];
+    int firstSize = Serialization.serializeStreamCommand(first, (byte) 0, (byte) 42, AREA, lights, 0, 3);
+    int secondSize = Serialization.serializeStreamCommand(second, (byte) 0, (byte) 42, AREA, lights, 3, 2);
+
+    assertEquals(Serialization.messageSize(3), firstSize);
+    assertEquals(Serialization.messageSize(2), secondSize);
+    assertEquals(42, first[11]);
+    assertEquals(42, second[11]);
+    assertEquals(3, second[Serialization.HEADER_SIZE]);
+    assertEquals(4, second[Serialization.HEADER_SIZE + Serialization.LIGHT_SIZE]);
+  }
+
+  @Test
+  public void testEncodedLightsMatchLights() {
+    Light[] lights = {new Light(1, new Rgb(0xFFFF, 0, 0)), new Light(2, new Rgb(0, 0xFFFF, 0))};
+    ByteBuffer encoded = ByteBuffer.allocate(lights.length * Serialization.LIGHT_SIZE);
+    for (Light light : lights) {
+      light.serializeTo(encoded);
+    }
+    encoded.flip();
+
+    byte[] expected = new byte[Serialization.messageSize(2)];
+    byte[] actual = new byte[Serialization.messageSize(2)];
+    Serialization.serializeStreamCommand(expected, (byte) 0, (byte) 7, AREA, lights, 0, 2);
+    Serialization.serializeStreamCommand(actual, (byte) 0, (byte) 7, AREA, encoded, 2);
+
+    assertArrayEquals(expected, actual);
+    assertEquals(encoded.limit(), encoded.position());
+  }
+
+}